@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * The queue and workload of one configuration of the JMH benchmarks, built from their names. JMH refuses
+ * benchmarks in the default package, and a class in a named package cannot name the classes in it, so
+ * benchmarks.PriorityQueueBenchmark creates a BenchmarkQueue by reflection and drives it through the JDK
+ * interfaces it implements. Each thread gets its own stream of operations, run as PriorityQueueTester runs them.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class BenchmarkQueue implements IntFunction<IntSupplier>, AutoCloseable {
+    /**
+     * Creates the queue to be benchmarked
+     */
+    private interface QueueFactory {
+        /**
+         * Creates a fresh queue
+         * @param numThreads The number of threads that will use the queue
+         * @return The queue
+         * @throws InterruptedException
+         */
+        public IPriorityQueue create(int numThreads) throws InterruptedException;
+    }
+
+    private static final String[] QUEUE_NAMES = {"Sequential", "Concurrent", "Paper-23h", "PaperCombining-23h", "PaperOffHeap-23h", "MultiQueue", "Spray-23h", "LindenJonsson-23h", "Bucket-10001"};
+    private static final QueueFactory[] QUEUES = {
+        numThreads -> new SequentialPriorityQueue<Object>(),
+        numThreads -> new ConcurrentPriorityQueue<Object>(),
+        numThreads -> new PaperPriorityQueue<Object>(23),
+        numThreads -> new PaperPriorityQueue<Object>(new Skiplist(23), WaitStrategy.BUSY_SPIN, 0),
+        numThreads -> new PaperPriorityQueue<Object>(new OffHeapSkiplist(23)),
+        numThreads -> new MultiQueue(),
+        numThreads -> new SprayPriorityQueue(new Skiplist(23), numThreads),
+        numThreads -> new LindenJonssonPriorityQueue(23),
+        numThreads -> new BucketPriorityQueue(0, 10001) //The range of the uniform workload; larger values overflow
+    };
+
+    private IPriorityQueue queue;
+    private IWorkload workload;
+    private int numThreads;
+
+    /**
+     * Creates the queue and the workload
+     * @param queueName The name of the queue, such as Paper-23h
+     * @param workloadName The workload as its distribution and operation mix, such as uniform@0.5, or trace@FILE
+     * to replay a trace
+     * @param numThreads The number of threads that will run the workload
+     * @throws InterruptedException
+     * @throws IOException If the trace cannot be read
+     */
+    public BenchmarkQueue(String queueName, String workloadName, int numThreads) throws InterruptedException, IOException {
+        this.numThreads = numThreads;
+        workload = workload(workloadName);
+        for(int q = 0; q < QUEUES.length; q++)
+            if(QUEUE_NAMES[q].equalsIgnoreCase(queueName))
+                queue = QUEUES[q].create(numThreads);
+        if(queue == null)
+            throw new IllegalArgumentException("Unknown queue: " + queueName);
+    }
+
+    /**
+     * Creates a workload from its name
+     * @param name The distribution of the values and the operation mix, separated by @, or trace@FILE
+     * @return The workload
+     * @throws IOException If the trace cannot be read
+     */
+    private static IWorkload workload(String name) throws IOException {
+        int at = name.indexOf('@');
+        if(at < 0)
+            throw new IllegalArgumentException("Expected a workload such as uniform@0.5: " + name);
+        String keys = name.substring(0, at), arg = name.substring(at + 1);
+        if(keys.equals("trace"))
+            return new TraceWorkload(Paths.get(arg));
+
+        double opMix = Double.parseDouble(arg);
+        switch(keys) {
+            case "uniform":
+                return Workload.uniform(opMix);
+            case "zipf":
+                return Workload.zipf(10000, 1.0, opMix);
+            case "ascending":
+                return Workload.ascending(64, opMix);
+            case "hold":
+                return Workload.hold(10000, opMix);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + keys);
+        }
+    }
+
+    /**
+     * Creates the operations of one thread. It is called by that thread, and each operation is run by calling
+     * getAsInt() on the result, which returns the value added or removed.
+     * @param threadId The ID of the thread, from 0 to the number of threads
+     * @return The operations
+     */
+    public IntSupplier apply(int threadId) {
+        IWorkload.Generator generator = workload.generator(threadId, numThreads, Integer.MAX_VALUE);
+        return new IntSupplier() {
+            private int i; //The number of operations the thread has performed
+            private int numAdded; //The values the thread has added less those it has removed, as in PriorityQueueTester
+
+            /* (non-Javadoc)
+             * @see java.util.function.IntSupplier#getAsInt()
+             */
+            public int getAsInt() {
+                if(generator.nextIsAdd(i) || numAdded <= 0) {
+                    int v = generator.nextKey(i++);
+                    queue.add(v, threadId);
+                    numAdded++;
+                    return v;
+                }
+                i++;
+                int v = queue.removeMin(threadId);
+                generator.removed(v);
+                numAdded--;
+                return v;
+            }
+        };
+    }
+
+    /**
+     * Stops the threads the queue started, if any
+     */
+    public void close() {
+        if(queue instanceof PaperPriorityQueue<?>)
+            ((PaperPriorityQueue<?>) queue).stop();
+    }
+}
\ No newline at end of file
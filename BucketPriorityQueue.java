@@ -0,0 +1,201 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A priority queue for values from a small, known range. Every value in the range has a bucket that counts its
+ * duplicates, so an add is an increment and a check of the bits above the bucket. A hierarchical bitmap marks the buckets that hold elements: each
+ * bit on level 0 stands for a bucket, and each bit on a higher level for a word of the level below that has a bit
+ * set. A remove finds the smallest bucket by following the lowest set bit down from the single word at the top,
+ * which takes log64 of the range steps. Values above the range go to an overflow queue, which is only looked at
+ * once the buckets are empty.
+ * <p>
+ * Every word of the bitmap has a stamp that counts the clears of its bits, so a remove only has to check the
+ * words it reads against clears of those words, and removes that empty different buckets do not contend.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class BucketPriorityQueue implements IPriorityQueue {
+    private int min, max;
+    private AtomicIntegerArray counters;
+    private long[][] bits; //The bitmap, from level 0 to the single word at the top
+    private long[][] stamps; //For each word of the bitmap, its bit clears ever started in the upper half and those in progress in the lower half
+    private IPriorityQueue overflow;
+
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle STAMPS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long CLEAR_STARTED = 1L << 32;
+
+    /**
+     * Creates the priority queue
+     * @param min The smallest value that can be added
+     * @param max The value after the largest value kept in a bucket. Larger values go to the overflow queue.
+     */
+    public BucketPriorityQueue(int min, int max) {
+        if(max <= min)
+            throw new IllegalArgumentException("The range is empty");
+        this.min = min;
+        this.max = max;
+        counters = new AtomicIntegerArray(max - min);
+        overflow = new LindenJonssonPriorityQueue(23);
+
+        List<long[]> levels = new ArrayList<long[]>();
+        int n = max - min;
+        do {
+            n = (n + 63) >>> 6;
+            levels.add(new long[n]);
+        } while(n > 1);
+        bits = levels.toArray(new long[levels.size()][]);
+        stamps = new long[bits.length][];
+        for(int level = 0; level < bits.length; level++)
+            stamps[level] = new long[bits[level].length];
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(int)
+     */
+    public int removeMin(int threadId) {
+        while(true) {
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent())
+                return value.getAsInt();
+            Thread.onSpinWait();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMin(int)
+     */
+    public OptionalInt tryRemoveMin(int threadId) {
+        int top = bits.length - 1;
+        while(true) {
+            //Follows the lowest set bit down to a bucket
+            int i = 0, level;
+            boolean stable = true;
+            for(level = top; level >= 0; level--) {
+                //A bucket that is being emptied may be refilled while its bit is briefly cleared, which hides it
+                //from the walk, so a word only counts if no clear of one of its bits was in progress around the read
+                long stamp = (long) STAMPS.getVolatile(stamps[level], i);
+                long word = (long) BITS.getVolatile(bits[level], i);
+                if((int) stamp != 0 || (long) STAMPS.getVolatile(stamps[level], i) != stamp) {
+                    stable = false;
+                    break;
+                }
+                if(word == 0)
+                    break;
+                i = (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+
+            if(!stable) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if(level == top)
+                return overflow.tryRemoveMin(threadId);
+
+            //The bit led to an empty word or bucket. Clears it unless it is being set again.
+            if(level >= 0) {
+                clearBit(level + 1, i);
+                continue;
+            }
+            int c = counters.get(i);
+            if(c == 0) {
+                clearBit(0, i);
+                continue;
+            }
+            if(counters.compareAndSet(i, c, c - 1)) {
+                if(c == 1)
+                    clearBit(0, i);
+                return OptionalInt.of(min + i);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(true) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent() || System.nanoTime() - deadline >= 0)
+                return value;
+            Thread.yield();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#add(int, int)
+     */
+    public boolean add(int inValue, int threadId) {
+        if(inValue < min)
+            return false;
+        if(inValue >= max)
+            return overflow.add(inValue, threadId);
+
+        //The add that filled the bucket may not have set its bits yet, so every add makes sure they are set
+        int i = inValue - min;
+        counters.getAndIncrement(i);
+        setBit(0, i);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addAll(int[], int)
+     */
+    public boolean addAll(int[] values, int threadId) {
+        boolean added = true;
+        for(int v : values)
+            added &= add(v, threadId);
+        return added;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#drainMin(int[], int, int)
+     */
+    public int drainMin(int[] out, int max, int threadId) {
+        int n = 0, limit = Math.min(max, out.length);
+        OptionalInt value;
+        while(n < limit && (value = tryRemoveMin(threadId)).isPresent())
+            out[n++] = value.getAsInt();
+        return n;
+    }
+
+    /**
+     * Sets a bit and every bit above it. Stopping at a word that was not empty would not do: the add that filled
+     * it may not have set the bits above it yet, and the value would stay hidden after this add returned.
+     * @param level The level of the bit
+     * @param i The index of the bit on its level
+     */
+    private void setBit(int level, int i) {
+        for(; level < bits.length; level++, i >>>= 6) {
+            long bit = 1L << i;
+            if(((long) BITS.getVolatile(bits[level], i >>> 6) & bit) == 0)
+                BITS.getAndBitwiseOr(bits[level], i >>> 6, bit);
+        }
+    }
+
+    /**
+     * Clears a bit, and the bits above it if its word became empty. A thread that filled the bucket or word the
+     * bit stands for in the meantime may have found the bit still set and relied on it, so the bit is set again
+     * if what it stands for is no longer empty. The stamp of the word marks the clear as in progress until then.
+     * @param level The level of the bit
+     * @param i The index of the bit on its level
+     */
+    private void clearBit(int level, int i) {
+        int w = i >>> 6;
+        STAMPS.getAndAdd(stamps[level], w, CLEAR_STARTED + 1);
+        long word = (long) BITS.getAndBitwiseAnd(bits[level], i >>> 6, ~(1L << i)) & ~(1L << i);
+        if(word == 0 && level + 1 < bits.length)
+            clearBit(level + 1, w);
+        if(level == 0 ? counters.get(i) > 0 : (long) BITS.getVolatile(bits[level - 1], i) != 0)
+            setBit(level, i);
+        STAMPS.getAndAdd(stamps[level], w, -1L);
+    }
+}
\ No newline at end of file
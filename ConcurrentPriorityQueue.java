@@ -1,30 +1,136 @@
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * A priority queue that uses Java's PriorityBlockingQueue as the backing data structure.
+ * A priority queue that uses an IntHeap behind a lock as the backing data structure, in the manner of Java's
+ * PriorityBlockingQueue but without boxing the values.
  * @author Ryan Kelsey and Lee Berman
  *
+ * @param <T> The type of the payloads
  */
-public class ConcurrentPriorityQueue implements IPriorityQueue {
-    PriorityBlockingQueue<Integer> pq;
+public class ConcurrentPriorityQueue<T> implements IPayloadPriorityQueue<T> {
+    IntHeap pq;
+    private ReentrantLock lock;
+    private Condition notEmpty;
+    private Object[] payloadHolder = new Object[1]; //Receives the payload of a removed value. Only used while holding the lock.
     
     public ConcurrentPriorityQueue() {
-        pq = new PriorityBlockingQueue<Integer>();
+        pq = new IntHeap();
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
     }
     /* (non-Javadoc)
      * @see IPriorityQueue#removeMin(int)
      */
     public int removeMin(int threadId) {
+        lock.lock();
         try {
-            return pq.take();
+            while(pq.isEmpty())
+                notEmpty.await();
+            return pq.poll();
         } catch (InterruptedException e) {
-            return -Integer.MIN_VALUE;
+            //Gives up as on an empty queue, and leaves the interrupt for the caller to see
+            Thread.currentThread().interrupt();
+            return Integer.MAX_VALUE;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMin(int)
+     */
+    public OptionalInt tryRemoveMin(int threadId) {
+        lock.lock();
+        try {
+            return pq.isEmpty() ? OptionalInt.empty() : OptionalInt.of(pq.poll());
+        } finally {
+            lock.unlock();
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(pq.isEmpty()) {
+                if(nanos <= 0)
+                    return OptionalInt.empty();
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return OptionalInt.of(pq.poll());
+        } finally {
+            lock.unlock();
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPayloadPriorityQueue#removeMinEntry(int)
+     */
+    @SuppressWarnings("unchecked")
+    public Tuple<Integer, T> removeMinEntry(int threadId) {
+        lock.lock();
+        try {
+            while(pq.isEmpty())
+                notEmpty.await();
+            int value = pq.poll(payloadHolder);
+            T payload = (T) payloadHolder[0];
+            payloadHolder[0] = null;
+            return new Tuple<Integer, T>(value, payload);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Tuple<Integer, T>(Integer.MAX_VALUE, null);
+        } finally {
+            lock.unlock();
         }
     }
     /* (non-Javadoc)
      * @see IPriorityQueue#add(int, int)
      */
     public boolean add(int inValue, int threadId) {
-        return pq.add(inValue);
+        return add(inValue, null, threadId);
+    }
+    /* (non-Javadoc)
+     * @see IPayloadPriorityQueue#add(int, java.lang.Object, int)
+     */
+    public boolean add(int inValue, T payload, int threadId) {
+        lock.lock();
+        try {
+            pq.add(inValue, payload);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addAll(int[], int)
+     */
+    public boolean addAll(int[] values, int threadId) {
+        lock.lock();
+        try {
+            for(int v : values)
+                pq.add(v);
+            notEmpty.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPriorityQueue#drainMin(int[], int, int)
+     */
+    public int drainMin(int[] out, int max, int threadId) {
+        lock.lock();
+        try {
+            int n = 0, limit = Math.min(max, out.length);
+            while(n < limit && !pq.isEmpty())
+                out[n++] = pq.poll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,258 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An elimination array that packs the state and stamp of each slot into a single long, so that
+ * hand-offs between the Server and client threads never allocate. The 64-bit value a slot carries is
+ * kept out of band, on the same cache line, so every long can be a value and no value is reserved
+ * for a state. The payload and blocked thread of each slot share a cache line of their own. Only the
+ * first width() slots are in use; the width grows when threads collide on slots and shrinks when
+ * hand-offs keep missing.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class EliminationArray {
+	private AtomicLongArray slots; //The packed state and stamp of each slot, followed by its value on the same cache line
+	private AtomicReferenceArray<Object> refs; //The payload of each slot followed by its blocked thread, padded like the slots
+	private final int size, minWidth;
+	private volatile int width; //The number of slots in use
+	private volatile int scanWidth; //The largest width ever used. Slots beyond the width may still hold posted requests.
+	private AtomicInteger collisions, misses;
+
+	private static final int PADDING = 8; //Number of longs in a 64 byte cache line
+	private static final int REF_PADDING = 16; //Number of compressed references in a 64 byte cache line, and twice the number of full ones
+	private static final int SAMPLE_MASK = 7; //Only about one event in eight is counted, to keep the counters cold
+	private static final int GROW_THRESHOLD = 8; //Counted collisions before the width grows
+	private static final int SHRINK_THRESHOLD = 64; //Counted misses before the width shrinks
+
+	/**
+	 * Creates a fixed-width elimination array with every slot in the given state with a stamp of 0
+	 * @param size The number of slots
+	 * @param initialState The state every slot starts in
+	 */
+	public EliminationArray(int size, int initialState) {
+		this(size, size, initialState);
+	}
+
+	/**
+	 * Creates an adaptive elimination array with every slot in the given state with a stamp of 0
+	 * @param size The number of slots, which bounds the width
+	 * @param minWidth The initial and smallest width
+	 * @param initialState The state every slot starts in
+	 */
+	public EliminationArray(int size, int minWidth, int initialState) {
+		this.size = size;
+		this.minWidth = Math.min(minWidth, size);
+		width = this.minWidth;
+		scanWidth = this.minWidth;
+		collisions = new AtomicInteger(0);
+		misses = new AtomicInteger(0);
+		slots = new AtomicLongArray((size + 2) * PADDING);
+		refs = new AtomicReferenceArray<Object>((size + 2) * REF_PADDING);
+		for(int i = 0; i < size; i++)
+			set(i, initialState, 0);
+	}
+
+	/**
+	 * Fetches the number of slots
+	 * @return The number of slots
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Fetches the number of slots clients should currently spread over
+	 * @return The width
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * Fetches the number of slots the Server has to scan, which covers every width ever used
+	 * @return The scan width
+	 */
+	public int scanWidth() {
+		return scanWidth;
+	}
+
+	/**
+	 * Records that a thread lost a race for a slot or found no free slot, which suggests the array is too narrow
+	 */
+	public void recordCollision() {
+		if((ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) != 0)
+			return;
+		if(collisions.incrementAndGet() >= GROW_THRESHOLD)
+			resize(1);
+	}
+
+	/**
+	 * Records that a thread found no partner to eliminate with, which suggests requests are spread too thin
+	 */
+	public void recordMiss() {
+		if((ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) != 0)
+			return;
+		if(misses.incrementAndGet() >= SHRINK_THRESHOLD)
+			resize(-1);
+	}
+
+	/**
+	 * Changes the width within its bounds and restarts both counters
+	 * @param delta The change in width
+	 */
+	private synchronized void resize(int delta) {
+		int w = Math.max(minWidth, Math.min(size, width + delta));
+		if(w > scanWidth)
+			scanWidth = w;
+		width = w;
+		collisions.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Fetches the packed state and stamp of a slot
+	 * @param pos The slot
+	 * @return The packed slot, to be read with state() and stamp()
+	 */
+	public long get(int pos) {
+		return slots.get(index(pos));
+	}
+
+	/**
+	 * Fetches the state of a slot
+	 * @param pos The slot
+	 * @return The state of the slot
+	 */
+	public int getState(int pos) {
+		return state(get(pos));
+	}
+
+	/**
+	 * Atomically replaces a slot if it still holds the expected packed state and stamp
+	 * @param pos The slot
+	 * @param expected The packed slot previously returned by get()
+	 * @param state The new state
+	 * @param stamp The new stamp
+	 * @return true if successful
+	 */
+	public boolean compareAndSet(int pos, long expected, int state, int stamp) {
+		return slots.compareAndSet(index(pos), expected, pack(state, stamp));
+	}
+
+	/**
+	 * Unconditionally replaces a slot. Only the thread that currently owns the slot may call this.
+	 * @param pos The slot
+	 * @param state The new state
+	 * @param stamp The new stamp
+	 */
+	public void set(int pos, int state, int stamp) {
+		slots.set(index(pos), pack(state, stamp));
+	}
+
+	/**
+	 * Fetches the value of a slot. Like the payload, it is only meaningful while the slot is in the state that
+	 * carries it, which a reader confirms by finding the same packed slot before and after, or by a CAS on it.
+	 * @param pos The slot
+	 * @return The value
+	 */
+	public long getValue(int pos) {
+		return slots.get(index(pos) + 1);
+	}
+
+	/**
+	 * Replaces the value of a slot. Only the thread that currently owns the slot may call this, and it must do
+	 * so before publishing the state that carries the value with set().
+	 * @param pos The slot
+	 * @param value The value
+	 */
+	public void setValue(int pos, long value) {
+		slots.lazySet(index(pos) + 1, value);
+	}
+
+	/**
+	 * Fetches the payload of a slot. It is only meaningful while the slot holds the value it belongs to.
+	 * @param pos The slot
+	 * @return The payload, or null if the value carries none
+	 */
+	public Object getPayload(int pos) {
+		return refs.get(refIndex(pos));
+	}
+
+	/**
+	 * Replaces the payload of a slot. Only the thread that currently owns the slot may call this,
+	 * and it must do so before publishing the value with set().
+	 * @param pos The slot
+	 * @param payload The payload, or null
+	 */
+	public void setPayload(int pos, Object payload) {
+		refs.lazySet(refIndex(pos), payload);
+	}
+
+	/**
+	 * Fetches the thread blocked waiting for a slot to change
+	 * @param pos The slot
+	 * @return The blocked thread, or null if none
+	 */
+	public Thread getWaiter(int pos) {
+		return (Thread) refs.get(refIndex(pos) + 1);
+	}
+
+	/**
+	 * Registers or clears the thread blocked waiting for a slot to change
+	 * @param pos The slot owned by the caller
+	 * @param waiter The blocked thread, or null
+	 */
+	public void setWaiter(int pos, Thread waiter) {
+		refs.set(refIndex(pos) + 1, waiter);
+	}
+
+	/**
+	 * Extracts the state from a packed slot
+	 * @param slot The packed slot
+	 * @return The state
+	 */
+	public static int state(long slot) {
+		return (int) slot;
+	}
+
+	/**
+	 * Extracts the stamp from a packed slot
+	 * @param slot The packed slot
+	 * @return The stamp
+	 */
+	public static int stamp(long slot) {
+		return (int) (slot >>> 32);
+	}
+
+	/**
+	 * Packs a state and stamp into a single long
+	 * @param state The state
+	 * @param stamp The stamp
+	 * @return The packed slot
+	 */
+	public static long pack(int state, int stamp) {
+		return ((long) stamp << 32) | (state & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Maps a slot to its index in the backing array so that every slot sits on its own cache line
+	 * @param pos The slot
+	 * @return The index in the backing array
+	 */
+	private int index(int pos) {
+		return (pos + 1) * PADDING;
+	}
+
+	/**
+	 * Maps a slot to the index of its payload in the array of references, which keeps the payload and waiter of
+	 * every slot on a cache line of their own
+	 * @param pos The slot
+	 * @return The index of the payload, followed by the waiter
+	 */
+	private int refIndex(int pos) {
+		return (pos + 1) * REF_PADDING;
+	}
+}
\ No newline at end of file
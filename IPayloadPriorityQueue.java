@@ -0,0 +1,48 @@
+/**
+ * A priority queue whose elements can carry a payload alongside their priority
+ * @author Ryan Kelsey and Lee Berman
+ *
+ * @param <T> The type of the payloads
+ */
+public interface IPayloadPriorityQueue<T> extends IPriorityQueue {
+    /**
+     * Removes the minimum value and its payload from the priority queue
+     * @param threadId The ID of the thread
+     * @return The minimum value and its payload, which is null if the value was added without one
+     */
+    public Tuple<Integer, T> removeMinEntry(int threadId);
+
+
+    /**
+     * Adds a value with a payload to the priority queue
+     * @param inValue The value to be added
+     * @param payload The payload to be stored with the value
+     * @param threadId The ID of the thread
+     * @return true if successful
+     */
+    public boolean add(int inValue, T payload, int threadId);
+
+
+    /**
+     * Removes the minimum 64-bit value and its payload from the priority queue
+     * @param threadId The ID of the thread
+     * @return The minimum value and its payload, or Long.MAX_VALUE and null if the priority queue is empty
+     */
+    public default Tuple<Long, T> removeMinLongEntry(int threadId) {
+        Tuple<Integer, T> entry = removeMinEntry(threadId);
+        return new Tuple<Long, T>(entry.a == Integer.MAX_VALUE ? Long.MAX_VALUE : entry.a, entry.b);
+    }
+
+
+    /**
+     * Adds a 64-bit value with a payload to the priority queue. Unless the queue overrides this, only values in the
+     * int range are accepted.
+     * @param inValue The value to be added
+     * @param payload The payload to be stored with the value
+     * @param threadId The ID of the thread
+     * @return true if successful, false if the queue cannot hold the value
+     */
+    public default boolean addLong(long inValue, T payload, int threadId) {
+        return inValue == (int) inValue && add((int) inValue, payload, threadId);
+    }
+}
\ No newline at end of file
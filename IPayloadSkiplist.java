@@ -0,0 +1,54 @@
+/**
+ * A skiplist that stores a payload with each value, as PaperPriorityQueue needs for payloads and handles
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public interface IPayloadSkiplist extends ISkiplist {
+	/**
+	 * Removes the smallest value and its payload from the sequential part of the skiplist
+	 * @param payloadHolder An array whose first element receives the payload, or null if the payload is not needed
+	 * @return The removed value, or Long.MAX_VALUE if the skiplist is empty
+	 */
+	public long removeSeq(Object[] payloadHolder);
+
+	/**
+	 * Removes up to max of the smallest values and their payloads from the sequential part of the skiplist in one run
+	 * @param values An array to store the removed values in
+	 * @param payloads An array to store the payloads of the removed values in, or null if they are not needed
+	 * @param max The maximum number of values to remove
+	 * @return The number of values removed, which is less than max only if the skiplist ran empty
+	 */
+	public int removeSeq(long[] values, Object[] payloads, int max);
+
+	/**
+	 * Adds an element with a payload to the sequential part of the skiplist
+	 * @param v The value to be added
+	 * @param payload The payload of the element, or null if it has none
+	 */
+	public void addSeq(long v, Object payload);
+
+	/**
+	 * Adds a batch of elements with their payloads to the sequential part of the skiplist in a single sweep from its head
+	 * @param values The values to be added, sorted in ascending order
+	 * @param payloads The payloads of the values, or null if none of them carries one
+	 * @param n The number of values to be added
+	 */
+	public void addSeqAll(long[] values, Object[] payloads, int n);
+
+	/**
+	 * Adds an element with a payload to the parallel part of the skiplist
+	 * @param v The value to be added
+	 * @param payload The payload of the element, or null if it has none
+	 * @return false if the value belongs in the sequential part, true if successful
+	 */
+	public boolean addPar(long v, Object payload);
+
+	/**
+	 * Takes an element with a given payload out of its bucket before a remove reaches it, if the bucket is in the
+	 * parallel part. A bucket emptied this way stays linked until moveHead() passes over it.
+	 * @param v The value of the element
+	 * @param payload The payload the element was added with, compared by identity
+	 * @return true if the element was taken out, false if it is in the sequential part or no longer in the skiplist
+	 */
+	public boolean discard(long v, Object payload);
+}
\ No newline at end of file
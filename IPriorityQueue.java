@@ -1,5 +1,10 @@
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
 /**
- * A generic priority queue interface
+ * A generic priority queue interface. Values are ints, and queues that can order the full 64-bit range
+ * also take and hand out long values through the methods ending in Long.
  * @author Ryan Kelsey and Lee Berman
  *
  */
@@ -12,6 +17,25 @@ public interface IPriorityQueue {
     public int removeMin(int threadId);
     
     
+    /**
+     * Removes the minimum value from the priority queue without waiting for one to be added
+     * @param threadId The ID of the thread
+     * @return The minimum value, or an empty OptionalInt if the priority queue is empty
+     */
+    public OptionalInt tryRemoveMin(int threadId);
+    
+    
+    /**
+     * Removes the minimum value from the priority queue, waiting up to the given time for one to be added
+     * @param timeout How long to wait
+     * @param unit The unit of timeout
+     * @param threadId The ID of the thread
+     * @return The minimum value, or an empty OptionalInt if the timeout elapsed first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException;
+    
+    
     /**
      * Adds a value to the priority queue
      * @param inValue The value to be added
@@ -19,4 +43,59 @@ public interface IPriorityQueue {
      * @return true if successful
      */
     public boolean add(int inValue, int threadId);
+    
+    
+    /**
+     * Adds a batch of values to the priority queue
+     * @param values The values to be added
+     * @param threadId The ID of the thread
+     * @return true if every value was added
+     */
+    public boolean addAll(int[] values, int threadId);
+    
+    
+    /**
+     * Removes up to max of the smallest values from the priority queue without waiting for more to arrive
+     * @param out An array to store the removed values in, in ascending order
+     * @param max The maximum number of values to remove. No more than out.length values are removed, whatever max is.
+     * @param threadId The ID of the thread
+     * @return The number of values removed
+     */
+    public int drainMin(int[] out, int max, int threadId);
+    
+    
+    /**
+     * Adds a 64-bit value to the priority queue. Unless the queue overrides this, only values in the int range are accepted.
+     * @param inValue The value to be added
+     * @param threadId The ID of the thread
+     * @return true if successful, false if the queue cannot hold the value
+     */
+    public default boolean addLong(long inValue, int threadId) {
+        return inValue == (int) inValue && add((int) inValue, threadId);
+    }
+    
+    
+    /**
+     * Removes the minimum 64-bit value from the priority queue without waiting for one to be added
+     * @param threadId The ID of the thread
+     * @return The minimum value, or an empty OptionalLong if the priority queue is empty
+     */
+    public default OptionalLong tryRemoveMinLong(int threadId) {
+        OptionalInt value = tryRemoveMin(threadId);
+        return value.isPresent() ? OptionalLong.of(value.getAsInt()) : OptionalLong.empty();
+    }
+    
+    
+    /**
+     * Removes the minimum 64-bit value from the priority queue, waiting up to the given time for one to be added
+     * @param timeout How long to wait
+     * @param unit The unit of timeout
+     * @param threadId The ID of the thread
+     * @return The minimum value, or an empty OptionalLong if the timeout elapsed first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public default OptionalLong removeMinLong(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        OptionalInt value = removeMin(timeout, unit, threadId);
+        return value.isPresent() ? OptionalLong.of(value.getAsInt()) : OptionalLong.empty();
+    }
 }
\ No newline at end of file
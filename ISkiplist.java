@@ -0,0 +1,81 @@
+/**
+ * A skiplist with a sequential part on the first end and a parallel part on the second end,
+ * as used by PaperPriorityQueue. Values are 64-bit, and Long.MAX_VALUE is reserved to mark the end of the skiplist.
+ * A skiplist that can also store a payload with each value implements IPayloadSkiplist.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public interface ISkiplist {
+	/**
+	 * Removes the smallest value from the sequential part of the skiplist
+	 * @return The removed value, or Long.MAX_VALUE if the skiplist is empty
+	 */
+	public long removeSeq();
+
+	/**
+	 * Removes up to max of the smallest values from the sequential part of the skiplist in one run
+	 * @param values An array to store the removed values in
+	 * @param max The maximum number of values to remove
+	 * @return The number of values removed, which is less than max only if the skiplist ran empty
+	 */
+	public int removeSeq(long[] values, int max);
+
+	/**
+	 * Adds an element to the sequential part of the skiplist
+	 * @param v The value to be added
+	 */
+	public void addSeq(long v);
+
+	/**
+	 * Adds a batch of elements to the sequential part of the skiplist in a single sweep from its head
+	 * @param values The values to be added, sorted in ascending order
+	 * @param n The number of values to be added
+	 */
+	public void addSeqAll(long[] values, int n);
+
+	/**
+	 * Adds an element to the parallel part of the skiplist
+	 * @param v The value to be added
+	 * @return false if the value belongs in the sequential part, true if successful
+	 */
+	public boolean addPar(long v);
+
+	/**
+	 * Adds a batch of values to the parallel part of the skiplist with a single traversal
+	 * @param values The values to be inserted, sorted in ascending order
+	 * @param from The index of the first value to be inserted
+	 * @param to The index after the last value to be inserted
+	 * @return The index of the first value that was added. The values before it belong in the sequential part.
+	 */
+	public int addParAll(long[] values, int from, int to);
+
+	/**
+	 * Moves elements from the parallel part to the sequential part
+	 * @return true if successful
+	 */
+	public boolean moveHead();
+
+	/**
+	 * Moves the sequential part to the parallel part, so that adds are made in parallel until the next moveHead()
+	 * @return true if successful, false if the sequential part was empty
+	 */
+	public boolean chopHead();
+
+	/**
+	 * Fetches the minimum skiplist value
+	 * @return The minimum skiplist value, or Long.MAX_VALUE if the skiplist is empty
+	 */
+	public long getMinValue();
+
+	/**
+	 * Determines if duplicates of a value are removed in the order they were added
+	 * @return true if equal values come out first in, first out
+	 */
+	public boolean isStable();
+
+	/**
+	 * Fetches the counters of the skiplist, which the priority queue built on it also counts into
+	 * @return The counters
+	 */
+	public QueueStats stats();
+}
\ No newline at end of file
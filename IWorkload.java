@@ -0,0 +1,45 @@
+/**
+ * A workload for testing priority queues: the sequence of adds and removes that every thread performs,
+ * and the values it adds
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public interface IWorkload {
+    /**
+     * Creates the generator of the operations of one thread. It is called by that thread.
+     * @param threadId The ID of the thread
+     * @param numThreads The number of threads running the workload
+     * @param numOperations The number of operations the thread performs
+     * @return The generator
+     */
+    public Generator generator(int threadId, int numThreads, int numOperations);
+
+
+    /**
+     * Generates the operations of one thread. It is only used by that thread.
+     */
+    public interface Generator {
+        /**
+         * Decides the next operation
+         * @param i The number of operations the thread has performed
+         * @return true if the next operation is an add, false if it is a remove
+         */
+        public boolean nextIsAdd(int i);
+
+
+        /**
+         * Generates the value of the next add. It is also called when the thread adds instead of removing
+         * because it has nothing left to remove.
+         * @param i The number of operations the thread has performed
+         * @return The value to be added
+         */
+        public int nextKey(int i);
+
+
+        /**
+         * Reports the result of a remove, for workloads whose values depend on what was removed
+         * @param value The removed value, or Integer.MAX_VALUE if the queue was empty
+         */
+        public void removed(int value);
+    }
+}
\ No newline at end of file
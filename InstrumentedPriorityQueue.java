@@ -0,0 +1,139 @@
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A priority queue that records the latency of every operation on another priority queue. If the other
+ * queue is a PaperPriorityQueue, it also records whether each add and remove was eliminated or went
+ * through the skiplist.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class InstrumentedPriorityQueue implements IPriorityQueue {
+    private IPriorityQueue queue;
+    private QueueLatencies latencies;
+
+    /**
+     * Creates the instrumented priority queue
+     * @param queue The priority queue to be instrumented
+     */
+    public InstrumentedPriorityQueue(IPriorityQueue queue) {
+        this.queue = queue;
+        latencies = new QueueLatencies();
+        if(queue instanceof PaperPriorityQueue<?>)
+            ((PaperPriorityQueue<?>) queue).setLatencies(latencies);
+    }
+
+    /**
+     * Fetches the instrumented priority queue
+     * @return The priority queue whose operations are recorded
+     */
+    public IPriorityQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Fetches the recorded latencies
+     * @return The latencies, which can be snapshotted at any time
+     */
+    public QueueLatencies getLatencies() {
+        return latencies;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(int)
+     */
+    public int removeMin(int threadId) {
+        long start = System.nanoTime();
+        int value = queue.removeMin(threadId);
+        latencies.record(QueueLatencies.Series.REMOVE, System.nanoTime() - start);
+        return value;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMin(int)
+     */
+    public OptionalInt tryRemoveMin(int threadId) {
+        long start = System.nanoTime();
+        OptionalInt value = queue.tryRemoveMin(threadId);
+        if(value.isPresent())
+            latencies.record(QueueLatencies.Series.REMOVE, System.nanoTime() - start);
+        return value;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long start = System.nanoTime();
+        OptionalInt value = queue.removeMin(timeout, unit, threadId);
+        if(value.isPresent())
+            latencies.record(QueueLatencies.Series.REMOVE, System.nanoTime() - start);
+        return value;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMinLong(int)
+     */
+    @Override
+    public OptionalLong tryRemoveMinLong(int threadId) {
+        long start = System.nanoTime();
+        OptionalLong value = queue.tryRemoveMinLong(threadId);
+        if(value.isPresent())
+            latencies.record(QueueLatencies.Series.REMOVE, System.nanoTime() - start);
+        return value;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMinLong(long, java.util.concurrent.TimeUnit, int)
+     */
+    @Override
+    public OptionalLong removeMinLong(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long start = System.nanoTime();
+        OptionalLong value = queue.removeMinLong(timeout, unit, threadId);
+        if(value.isPresent())
+            latencies.record(QueueLatencies.Series.REMOVE, System.nanoTime() - start);
+        return value;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#add(int, int)
+     */
+    public boolean add(int inValue, int threadId) {
+        long start = System.nanoTime();
+        boolean added = queue.add(inValue, threadId);
+        latencies.record(QueueLatencies.Series.ADD, System.nanoTime() - start);
+        return added;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addLong(long, int)
+     */
+    @Override
+    public boolean addLong(long inValue, int threadId) {
+        long start = System.nanoTime();
+        boolean added = queue.addLong(inValue, threadId);
+        latencies.record(QueueLatencies.Series.ADD, System.nanoTime() - start);
+        return added;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addAll(int[], int)
+     */
+    public boolean addAll(int[] values, int threadId) {
+        long start = System.nanoTime();
+        boolean added = queue.addAll(values, threadId);
+        latencies.record(QueueLatencies.Series.ADD_ALL, System.nanoTime() - start);
+        return added;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#drainMin(int[], int, int)
+     */
+    public int drainMin(int[] out, int max, int threadId) {
+        long start = System.nanoTime();
+        int drained = queue.drainMin(out, max, threadId);
+        latencies.record(QueueLatencies.Series.DRAIN, System.nanoTime() - start);
+        return drained;
+    }
+}
\ No newline at end of file
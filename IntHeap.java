@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * A 4-ary min-heap of primitive ints, for use behind a lock. The values are kept in an int[] rather than boxed,
+ * and the four children of a node sit next to each other, so a sift down compares them within one or two cache
+ * lines and the heap is half as deep as a binary one. Payloads, if any are added, are kept in an array parallel
+ * to the values, which is only allocated once the first payload arrives.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class IntHeap {
+	private int[] values;
+	private Object[] payloads; //The payload of each value, or null until a payload is added
+	private int size;
+
+	private static final int ARITY = 4;
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Creates an empty heap
+	 */
+	public IntHeap() {
+		values = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Fetches the number of values in the heap
+	 * @return The number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determines if the heap is empty
+	 * @return true if the heap holds no values
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Fetches the smallest value without removing it
+	 * @return The smallest value, or Integer.MAX_VALUE if the heap is empty
+	 */
+	public int peek() {
+		return size == 0 ? Integer.MAX_VALUE : values[0];
+	}
+
+	/**
+	 * Adds a value
+	 * @param v The value
+	 */
+	public void add(int v) {
+		add(v, null);
+	}
+
+	/**
+	 * Adds a value with a payload
+	 * @param v The value
+	 * @param payload The payload of the value, or null if it has none
+	 */
+	public void add(int v, Object payload) {
+		if(size == values.length) {
+			values = Arrays.copyOf(values, size << 1);
+			if(payloads != null)
+				payloads = Arrays.copyOf(payloads, size << 1);
+		}
+		if(payload != null && payloads == null)
+			payloads = new Object[values.length];
+
+		//Moves the hole up from the end until the parent is no larger than v
+		int i = size++;
+		while(i > 0) {
+			int parent = (i - 1) / ARITY;
+			if(values[parent] <= v)
+				break;
+			move(parent, i);
+			i = parent;
+		}
+		values[i] = v;
+		if(payloads != null)
+			payloads[i] = payload;
+	}
+
+	/**
+	 * Removes the smallest value. Must not be called on an empty heap.
+	 * @return The removed value
+	 */
+	public int poll() {
+		return poll(null);
+	}
+
+	/**
+	 * Removes the smallest value and its payload. Must not be called on an empty heap.
+	 * @param payloadHolder An array whose first element receives the payload, or null if the payload is not needed
+	 * @return The removed value
+	 */
+	public int poll(Object[] payloadHolder) {
+		int min = values[0];
+		if(payloadHolder != null)
+			payloadHolder[0] = payloads == null ? null : payloads[0];
+
+		int last = --size;
+		int v = values[last];
+		Object payload = payloads == null ? null : payloads[last];
+		if(payloads != null)
+			payloads[last] = null;
+		if(last == 0)
+			return min;
+
+		//Moves the hole down from the root until the smallest child is no smaller than the last value
+		int i = 0;
+		while(true) {
+			int first = i * ARITY + 1;
+			if(first >= last)
+				break;
+			int end = Math.min(first + ARITY, last);
+			int child = first;
+			for(int c = first + 1; c < end; c++)
+				if(values[c] < values[child])
+					child = c;
+			if(values[child] >= v)
+				break;
+			move(child, i);
+			i = child;
+		}
+		values[i] = v;
+		if(payloads != null)
+			payloads[i] = payload;
+		return min;
+	}
+
+	/**
+	 * Moves a value and its payload to another position
+	 * @param from The position of the value
+	 * @param to The position to move it to
+	 */
+	private void move(int from, int to) {
+		values[to] = values[from];
+		if(payloads != null)
+			payloads[to] = payloads[from];
+	}
+}
\ No newline at end of file
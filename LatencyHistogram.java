@@ -0,0 +1,183 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A histogram of latencies in nanoseconds in the style of HdrHistogram. Values are counted in buckets
+ * whose width grows with the magnitude of the value, so that every value is kept to within 1/64 of
+ * its size. Threads record into a fixed set of shards picked by thread ID, about two per processor, so
+ * that concurrent threads rarely write to the same shard and threads that come and go leave nothing
+ * behind. Snapshots merge the shards.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; //Values below this are counted exactly
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1; //The buckets for each further power of two
+	private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+	private final AtomicReferenceArray<Shard> shards; //Allocated on first use
+	private final int shardMask;
+
+	/**
+	 * Creates an empty histogram
+	 */
+	public LatencyHistogram() {
+		int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+		shardMask = n - 1;
+		shards = new AtomicReferenceArray<Shard>(n);
+	}
+
+	/**
+	 * Records a latency from the calling thread
+	 * @param nanos The latency in nanoseconds. Negative latencies are counted as 0.
+	 */
+	public void record(long nanos) {
+		//Thread IDs are handed out in sequence, so threads started together land on different shards
+		int i = (int) Thread.currentThread().getId() & shardMask;
+		Shard s = shards.get(i);
+		if(s == null) {
+			shards.compareAndSet(i, null, new Shard());
+			s = shards.get(i);
+		}
+		s.record(Math.max(nanos, 0));
+	}
+
+	/**
+	 * Merges the shards of every thread into a snapshot. Values recorded while the snapshot is taken may
+	 * or may not be included.
+	 * @return The snapshot
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[NUM_BUCKETS];
+		long total = 0, max = 0;
+		for(int j = 0; j < shards.length(); j++) {
+			Shard s = shards.get(j);
+			if(s == null)
+				continue;
+			for(int i = 0; i < NUM_BUCKETS; i++) {
+				long c = s.counts.get(i);
+				counts[i] += c;
+				total += c;
+			}
+			max = Math.max(max, s.max.get());
+		}
+		return new Snapshot(counts, total, max);
+	}
+
+	/**
+	 * Determines the bucket that a value is counted in
+	 * @param v The value, which is not negative
+	 * @return The index of the bucket
+	 */
+	private static int bucket(long v) {
+		if(v < SUB_BUCKETS)
+			return (int) v;
+
+		//Keeps the SUB_BUCKET_BITS highest bits of the value; their top bit is always set
+		int shift = 64 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (v >>> shift) - HALF_SUB_BUCKETS;
+	}
+
+	/**
+	 * Determines the largest value that is counted in a bucket
+	 * @param bucket The index of the bucket
+	 * @return The largest value of the bucket
+	 */
+	private static long highestValue(int bucket) {
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long sub = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * The counts recorded by the threads that share a shard. The increments are atomic, since two threads
+	 * may share it, but are rarely contended.
+	 * @author Ryan Kelsey and Lee Berman
+	 *
+	 */
+	private static class Shard {
+		private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Records a value
+		 * @param v The value, which is not negative
+		 */
+		public void record(long v) {
+			counts.getAndIncrement(bucket(v));
+			if(v > max.get())
+				max.accumulateAndGet(v, Math::max);
+		}
+	}
+
+	/**
+	 * The merged counts of a histogram at some point in time
+	 * @author Ryan Kelsey and Lee Berman
+	 *
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long total, max;
+
+		/**
+		 * Creates a snapshot
+		 * @param counts The count of each bucket
+		 * @param total The sum of the counts
+		 * @param max The largest recorded value
+		 */
+		private Snapshot(long[] counts, long total, long max) {
+			this.counts = counts;
+			this.total = total;
+			this.max = max;
+		}
+
+		/**
+		 * Fetches the number of recorded latencies
+		 * @return The number of recorded latencies
+		 */
+		public long count() {
+			return total;
+		}
+
+		/**
+		 * Fetches the largest recorded latency
+		 * @return The largest latency in nanoseconds, or 0 if none was recorded
+		 */
+		public long max() {
+			return max;
+		}
+
+		/**
+		 * Computes a percentile of the recorded latencies
+		 * @param percentile The percentile, between 0 and 100
+		 * @return The latency in nanoseconds that the given percentage of latencies does not exceed, to within
+		 * 1/64 of its size, or 0 if none was recorded
+		 */
+		public long percentile(double percentile) {
+			if(total == 0)
+				return 0;
+
+			long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank)
+					return Math.min(highestValue(i), max);
+			}
+			return max;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "count=" + total + " p50=" + percentile(50) + "ns p99=" + percentile(99) + "ns p99.9=" + percentile(99.9) + "ns max=" + max + "ns";
+		}
+	}
+}
\ No newline at end of file
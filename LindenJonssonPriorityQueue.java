@@ -0,0 +1,306 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.OptionalInt;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+/**
+ * A lock-free priority queue on a skiplist in the style of Linden and Jonsson. A remove walks the bottom level
+ * from the head and takes from the first bucket that still holds an element. Emptied buckets are deleted
+ * logically by marking the bottom-level link that leads to them, so the deleted nodes always form a prefix of
+ * the list that adds skip over. Rather than being unlinked one by one, the prefix is cut off in one swing of
+ * the head's link once a remove has walked over BOUND_OFFSET deleted nodes. As in Skiplist, duplicates share a
+ * bucket with a counter, and an emptied bucket is never refilled.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class LindenJonssonPriorityQueue implements IPriorityQueue {
+    private Node head, tail;
+    private final int MAX_HEIGHT;
+
+    private static final int BOUND_OFFSET = 32; //Deleted nodes a remove may walk over before it cuts off the prefix
+
+    /**
+     * Creates the priority queue
+     * @param h The height of the skiplist
+     */
+    public LindenJonssonPriorityQueue(int h) {
+        MAX_HEIGHT = h;
+        tail = new Node(Integer.MAX_VALUE, h, null);
+        head = new Node(Integer.MIN_VALUE, h, tail);
+        for(int i = 1; i < h; i++)
+            head.setNext(i, tail);
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(int)
+     */
+    public int removeMin(int threadId) {
+        while(true) {
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent())
+                return value.getAsInt();
+            Thread.onSpinWait();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMin(int)
+     */
+    public OptionalInt tryRemoveMin(int threadId) {
+        boolean[] marked = new boolean[1];
+        Node obsHead = head.next0.get(marked);
+        boolean headMarked = marked[0];
+
+        Node x = head;
+        int offset = 0; //The deleted nodes walked over
+        while(true) {
+            Node next = x.next0.get(marked);
+            if(next == tail)
+                return OptionalInt.empty();
+
+            //The link is marked, so next is deleted
+            if(marked[0]) {
+                x = next;
+                offset++;
+                continue;
+            }
+
+            if(next.claim()) {
+                //Took the last element of the bucket. Deletes it logically.
+                if(next.getCounter() == 0)
+                    x.next0.attemptMark(next, true);
+
+                //Cuts off the prefix of deleted nodes up to x, which is deleted itself, and lets the upper levels skip it
+                if(offset >= BOUND_OFFSET && headMarked && head.next0.compareAndSet(obsHead, x, true, true))
+                    restructure();
+                return OptionalInt.of(next.key);
+            }
+
+            //Another remove emptied the bucket but has not marked it yet. Marks it on its behalf, unless an add
+            //got in between, in which case the new node is looked at first.
+            if(x.next0.compareAndSet(next, next, false, true)) {
+                x = next;
+                offset++;
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(true) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent() || System.nanoTime() - deadline >= 0)
+                return value;
+            Thread.yield();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#add(int, int)
+     */
+    public boolean add(int inValue, int threadId) {
+        //The largest value marks the end of the skiplist
+        if(inValue == Integer.MAX_VALUE)
+            return false;
+
+        Node[] preds = new Node[MAX_HEIGHT], succs = new Node[MAX_HEIGHT];
+        Node node;
+        while(true) {
+            Node b = locatePreds(inValue, preds, succs);
+
+            //A bucket is found. It may be emptied in the meantime, and is then passed over on the next try.
+            if(b != null) {
+                if(b.tryIncrement())
+                    return true;
+                continue;
+            }
+
+            //Linearization point. Links the node on the bottom level, unless the link was marked or changed.
+            node = new Node(inValue, generateHeight(), succs[0]);
+            if(preds[0].next0.compareAndSet(succs[0], node, false, false))
+                break;
+        }
+
+        //Links the upper levels, which only speed up finds. Gives up on a node that has already been emptied.
+        for(int i = 1; i < node.topLevel; i++) {
+            node.setNext(i, succs[i]);
+            while(!preds[i].compareAndSetNext(i, succs[i], node)) {
+                if(node.getCounter() == 0)
+                    return true;
+                locatePreds(inValue, preds, succs);
+                node.setNext(i, succs[i]);
+            }
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addAll(int[], int)
+     */
+    public boolean addAll(int[] values, int threadId) {
+        boolean added = true;
+        for(int v : values)
+            added &= add(v, threadId);
+        return added;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#drainMin(int[], int, int)
+     */
+    public int drainMin(int[] out, int max, int threadId) {
+        int n = 0, limit = Math.min(max, out.length);
+        OptionalInt value;
+        while(n < limit && (value = tryRemoveMin(threadId)).isPresent())
+            out[n++] = value.getAsInt();
+        return n;
+    }
+
+    /**
+     * Finds where a value belongs. Deleted nodes are passed over on every level, and on the bottom level the value
+     * is placed after the whole deleted prefix, even if it is smaller than the values in it.
+     * @param v The value
+     * @param preds An array to store the nodes before the value on every level
+     * @param succs An array to store the nodes after the value on every level
+     * @return The bucket holding the value if it was found and not emptied, otherwise null
+     */
+    private Node locatePreds(int v, Node[] preds, Node[] succs) {
+        boolean[] marked = new boolean[1];
+        Node x = head;
+        for(int i = MAX_HEIGHT - 1; i >= 0; i--) {
+            Node next = i == 0 ? x.next0.get(marked) : x.getNext(i);
+            boolean deleted = i == 0 && marked[0]; //Whether next is deleted
+            while(next != tail && (next.key < v || deleted || next.precedesDeleted() || (next.key == v && next.getCounter() == 0))) {
+                x = next;
+                next = i == 0 ? x.next0.get(marked) : x.getNext(i);
+                deleted = i == 0 && marked[0];
+            }
+            preds[i] = x;
+            succs[i] = next;
+        }
+
+        Node next = succs[0];
+        return next != tail && next.key == v ? next : null;
+    }
+
+    /**
+     * Lets the upper levels of the head skip the nodes that have been cut off with the deleted prefix
+     */
+    private void restructure() {
+        for(int i = MAX_HEIGHT - 1; i > 0; i--) {
+            Node first = head.getNext(i);
+            Node x = first;
+            while(x != tail && x.precedesDeleted())
+                x = x.getNext(i);
+            if(x != first)
+                head.compareAndSetNext(i, first, x);
+        }
+    }
+
+    /**
+     * Generates a random height between 1 and the maximum height specified
+     * @return The generated height
+     */
+    private int generateHeight() {
+        int h = 1;
+        while(h < MAX_HEIGHT && ThreadLocalRandom.current().nextBoolean())
+            h++;
+        return h;
+    }
+
+    /**
+     * A skiplist node holding a bucket of duplicates. The bottom-level link carries the mark that deletes the
+     * next node; the upper-level links are plain and kept inline.
+     * @author Ryan Kelsey and Lee Berman
+     *
+     */
+    private static class Node {
+        public final int key, topLevel;
+        private volatile int counter;
+        public final AtomicMarkableReference<Node> next0;
+        private final Node[] next; //The upper-level links. Index 0 is unused.
+
+        private static final VarHandle COUNTER;
+        private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+
+        static {
+            try {
+                COUNTER = MethodHandles.lookup().findVarHandle(Node.class, "counter", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        public Node(int key, int topLevel, Node next0) {
+            this.key = key;
+            this.topLevel = topLevel;
+            this.counter = 1;
+            this.next0 = new AtomicMarkableReference<Node>(next0, false);
+            this.next = new Node[topLevel];
+        }
+
+        /**
+         * Takes one element from the bucket, unless it has been emptied
+         * @return true if an element was taken
+         */
+        public boolean claim() {
+            int c = counter;
+            while(c > 0) {
+                if(COUNTER.compareAndSet(this, c, c - 1))
+                    return true;
+                c = counter;
+            }
+            return false;
+        }
+
+        /**
+         * Adds one element to the bucket, unless it has been emptied
+         * @return true if the element was added
+         */
+        public boolean tryIncrement() {
+            int c = counter;
+            while(c > 0) {
+                if(COUNTER.compareAndSet(this, c, c + 1))
+                    return true;
+                c = counter;
+            }
+            return false;
+        }
+
+        /**
+         * Determines if the node after this one is deleted, which puts this node inside the deleted prefix, or
+         * makes it the head
+         * @return true if the bottom-level link is marked
+         */
+        public boolean precedesDeleted() {
+            return next0.isMarked();
+        }
+
+        public int getCounter() {
+            return counter;
+        }
+
+        public Node getNext(int level) {
+            return (Node) NEXT.getVolatile(next, level);
+        }
+
+        public void setNext(int level, Node node) {
+            NEXT.setVolatile(next, level, node);
+        }
+
+        public boolean compareAndSetNext(int level, Node expected, Node node) {
+            return NEXT.compareAndSet(next, level, expected, node);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Node %d %d %d", key, topLevel, counter);
+        }
+    }
+}
\ No newline at end of file
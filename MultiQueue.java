@@ -0,0 +1,191 @@
+import java.util.OptionalInt;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A relaxed priority queue in the style of the MultiQueue of Rihani, Sanders, and Dementiev. Values are spread
+ * over c*P sequential heaps, each behind its own lock, where P is the number of processors. An add goes to a
+ * random heap, and a remove looks at the minimums of two random heaps and takes from the smaller one. Threads
+ * rarely meet on the same lock, so throughput scales with the thread count, at the cost of removes returning
+ * a value close to, but not always exactly, the minimum. The expected rank error grows linearly with c*P.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class MultiQueue implements IPriorityQueue {
+    private Heap[] heaps;
+
+    private static final int MAX_SAMPLES = 8; //Samples of two heaps that a remove tries before scanning every heap
+
+    /**
+     * Creates the priority queue with two heaps per processor
+     */
+    public MultiQueue() {
+        this(2);
+    }
+
+    /**
+     * Creates the priority queue
+     * @param c The number of heaps per processor. More heaps mean less contention and a larger rank error.
+     */
+    public MultiQueue(int c) {
+        int numHeaps = Math.max(2, c * Runtime.getRuntime().availableProcessors());
+        heaps = new Heap[numHeaps];
+        for(int i = 0; i < numHeaps; i++)
+            heaps[i] = new Heap();
+    }
+
+    /**
+     * Fetches the number of heaps
+     * @return The number of heaps
+     */
+    public int numHeaps() {
+        return heaps.length;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(int)
+     */
+    public int removeMin(int threadId) {
+        while(true) {
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent())
+                return value.getAsInt();
+            Thread.onSpinWait();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMin(int)
+     */
+    public OptionalInt tryRemoveMin(int threadId) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int s = 0; s < MAX_SAMPLES; s++) {
+            //Two-choice sampling: takes from whichever of two distinct random heaps has the smaller minimum
+            int i = random.nextInt(heaps.length);
+            Heap a = heaps[i];
+            Heap b = heaps[(i + 1 + random.nextInt(heaps.length - 1)) % heaps.length];
+            Heap heap = b.min < a.min ? b : a;
+            if(heap.min == Integer.MAX_VALUE || !heap.lock.tryLock())
+                continue;
+
+            try {
+                if(!heap.pq.isEmpty())
+                    return OptionalInt.of(heap.poll());
+            } finally {
+                heap.lock.unlock();
+            }
+        }
+
+        //The samples kept missing. Looks at every heap before reporting the queue as empty.
+        int start = random.nextInt(heaps.length);
+        for(int i = 0; i < heaps.length; i++) {
+            Heap heap = heaps[(start + i) % heaps.length];
+            heap.lock.lock();
+            try {
+                if(!heap.pq.isEmpty())
+                    return OptionalInt.of(heap.poll());
+            } finally {
+                heap.lock.unlock();
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(true) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent() || System.nanoTime() - deadline >= 0)
+                return value;
+            Thread.yield();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#add(int, int)
+     */
+    public boolean add(int inValue, int threadId) {
+        Heap heap = lockRandomHeap();
+        try {
+            heap.add(inValue);
+        } finally {
+            heap.lock.unlock();
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addAll(int[], int)
+     */
+    public boolean addAll(int[] values, int threadId) {
+        Heap heap = lockRandomHeap();
+        try {
+            for(int v : values)
+                heap.add(v);
+        } finally {
+            heap.lock.unlock();
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#drainMin(int[], int, int)
+     */
+    public int drainMin(int[] out, int max, int threadId) {
+        int n = 0, limit = Math.min(max, out.length);
+        OptionalInt value;
+        while(n < limit && (value = tryRemoveMin(threadId)).isPresent())
+            out[n++] = value.getAsInt();
+        return n;
+    }
+
+    /**
+     * Locks a random heap, trying other heaps rather than waiting while one is locked
+     * @return The locked heap
+     */
+    private Heap lockRandomHeap() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while(true) {
+            Heap heap = heaps[random.nextInt(heaps.length)];
+            if(heap.lock.tryLock())
+                return heap;
+        }
+    }
+
+    /**
+     * A sequential heap behind a lock. Its minimum is published so that removers can sample it without locking.
+     * @author Ryan Kelsey and Lee Berman
+     *
+     */
+    private static class Heap {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final IntHeap pq = new IntHeap();
+        private volatile int min = Integer.MAX_VALUE; //The smallest value, or Integer.MAX_VALUE if the heap is empty
+
+        /**
+         * Adds a value. Must be called while holding the lock.
+         * @param v The value
+         */
+        public void add(int v) {
+            pq.add(v);
+            if(v < min)
+                min = v;
+        }
+
+        /**
+         * Removes the smallest value. Must be called while holding the lock, and not on an empty heap.
+         * @return The value
+         */
+        public int poll() {
+            int value = pq.poll();
+            min = pq.peek();
+            return value;
+        }
+    }
+}
\ No newline at end of file
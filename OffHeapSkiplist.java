@@ -0,0 +1,779 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Skiplist that keeps its nodes off-heap. Nodes are int offsets into slabs of direct memory and
+ * unlinked nodes are returned to per-height free lists, so a very large queue creates no garbage
+ * and adds almost nothing to the old generation. Payloads live on the heap, so this skiplist stores none
+ * and is not an IPayloadSkiplist.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class OffHeapSkiplist implements ISkiplist {
+	private AtomicInteger seqElementsToAdd, seqInsertions, lastSeq;
+	private AtomicLong minValue;
+	private int headSeq, currSeq, headPar, tail;
+	private StripedReadWriteLock lock;
+	private int seqSize; //The number of elements in the sequential part. Only touched by the sequential side.
+	private QueueStats stats;
+	private final int MAX_HEIGHT;
+
+	private ByteBuffer[] chunks; //The slabs holding the nodes
+	private AtomicLong allocated; //The number of ints handed out so far
+	private AtomicLongArray freeLists; //Heads of the free lists indexed by height, tagged with a version in the upper 32 bits
+
+	private static final int SEQUENTIAL_INSERTIONS_OVERLOAD = 1000;
+	private static final int SEQUENTIAL_INSERTIONS_UNDERLOAD = 100;
+	private static final int MIN_SEQUENTIAL_ELEMENTS_TO_ADD = 8;
+	private static final int MAX_SEQUENTIAL_ELEMENTS_TO_ADD = 65536;
+
+	//Node layout, in ints. The key takes two.
+	private static final int KEY = 0;
+	private static final int TOP_LEVEL = 2;
+	private static final int COUNTER = 3;
+	private static final int NEXT = 4;
+
+	private static final int NULL = 0; //Address 0 is reserved and never handed out
+	private static final int CHUNK_BITS = 20; //Each slab holds 2^20 ints (4 MB)
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder()); //Plain access only, since keys need not be 8-byte aligned
+	private static final VarHandle CHUNK = MethodHandles.arrayElementVarHandle(ByteBuffer[].class);
+
+	/**
+	 * Constructs the Skiplist
+	 * @param h The height of the skiplist
+	 */
+	public OffHeapSkiplist(int h) {
+		MAX_HEIGHT = h;
+		lock = new StripedReadWriteLock();
+		minValue = new AtomicLong(Long.MAX_VALUE);
+		seqElementsToAdd = new AtomicInteger(MIN_SEQUENTIAL_ELEMENTS_TO_ADD);
+		seqInsertions = new AtomicInteger(0);
+		stats = new QueueStats(seqElementsToAdd::get);
+		chunks = new ByteBuffer[MAX_CHUNKS];
+		allocated = new AtomicLong(NEXT + h); //Reserves the null address
+		freeLists = new AtomicLongArray(h + 1);
+
+		headSeq = newNode(Long.MIN_VALUE, h);
+		headPar = newNode(Long.MAX_VALUE, h);
+		tail = newNode(Long.MAX_VALUE, h);
+		for(int i = 0; i < h; i++) {
+			setNext(headSeq, i, tail);
+			setNext(headPar, i, tail);
+		}
+		currSeq = NULL;
+		lastSeq = new AtomicInteger(headPar);
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#removeSeq()
+	 */
+	public long removeSeq() {
+		//The skiplist is empty
+		if(minValue.get() == Long.MAX_VALUE)
+			return Long.MAX_VALUE;
+
+		//The sequential part is empty; add elements from the parallel part
+		if(currSeq == NULL)
+			moveHead();
+
+		//The parallel part was empty as well
+		if(currSeq == NULL)
+			return Long.MAX_VALUE;
+
+		long key = key(currSeq);
+		seqSize--;
+
+		//This was the last instance of the removed value. Physically remove the node.
+		if(addToCounter(currSeq, -1) == 0) {
+			if(currSeq != lastSeq.get()) {
+				int removed = currSeq;
+				for(int i = 0; i < topLevel(removed); i++) {
+					setNext(headSeq, i, getNext(removed, i));
+				}
+				currSeq = getNext(removed, 0);
+				minValue.set(key(currSeq));
+				free(removed);
+				return key;
+			}
+			moveHead(); //If we just removed the last sequential element, add elements from the parallel part
+		}
+		return key;
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#removeSeq(long[], int)
+	 */
+	public int removeSeq(long[] values, int max) {
+		int n = 0;
+		boolean unlink = false; //Whether headSeq still points to emptied nodes before currSeq
+		while(n < max && minValue.get() != Long.MAX_VALUE) {
+			//The sequential part is empty; add elements from the parallel part
+			if(currSeq == NULL) {
+				moveHead();
+				if(currSeq == NULL)
+					break;
+			}
+
+			//Takes as many duplicates of the current minimum as are still needed
+			int node = currSeq;
+			long key = key(node);
+			int take = Math.min(counter(node), max - n);
+			for(int i = 0; i < take; i++)
+				values[n++] = key;
+
+			seqSize -= take;
+			if(addToCounter(node, -take) > 0)
+				break;
+
+			if(node == lastSeq.get()) {
+				unlink = false; //moveHead() replaces every link of headSeq
+				moveHead();
+			} else {
+				currSeq = getNext(node, 0);
+				minValue.set(key(currSeq));
+				unlink = true;
+			}
+		}
+
+		if(unlink)
+			unlinkRemoved();
+		return n;
+	}
+
+	/**
+	 * Points headSeq past the emptied nodes that precede currSeq and frees them
+	 */
+	private void unlinkRemoved() {
+		long currKey = key(currSeq);
+
+		//The upper levels are relinked first, since freeing a node overwrites its first link
+		for(int i = MAX_HEIGHT - 1; i > 0; i--) {
+			int next = getNext(headSeq, i);
+			while(next != tail && key(next) < currKey)
+				next = getNext(next, i);
+			setNext(headSeq, i, next);
+		}
+
+		int next = getNext(headSeq, 0);
+		setNext(headSeq, 0, currSeq);
+		while(next != currSeq) {
+			int removed = next;
+			next = getNext(removed, 0);
+			free(removed);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#addSeq(long)
+	 */
+	public void addSeq(long v) {
+		//Once the sequential part has an end, addPar() accepts every value beyond it, so such a value goes to the
+		//parallel part as well. After chopHead() the end is headSeq, and only the smallest value stays here.
+		int last = lastSeq.get();
+		if(last != headPar && v > key(last)) {
+			insertPar(v, false);
+			return;
+		}
+		seqInsertions.incrementAndGet();
+		seqSize++;
+
+		int[] preds = new int[MAX_HEIGHT], succs = new int[MAX_HEIGHT];
+		int node = find(headSeq, v, preds, succs); //Fetches the point where the node should be inserted
+
+		//The node already exists
+		if(node != NULL) {
+			addToCounter(node, 1);
+			return;
+		}
+
+		node = newNode(v, generateHeight());
+
+		//Physically inserts the node
+		for(int i = 0; i < topLevel(node); i++) {
+			setNext(node, i, succs[i]);
+			setNext(preds[i], i, node);
+		}
+
+		//Updates the minimum value
+		if(v < minValue.get()) {
+			minValue.set(v);
+			currSeq = node;
+		}
+
+		//The sequential part had no end yet
+		if(last == headPar || last == headSeq)
+			lastSeq.set(node);
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#addSeqAll(long[], int)
+	 */
+	public void addSeqAll(long[] values, int n) {
+		//Values beyond the end of the sequential part go to the parallel part, as in addSeq()
+		int last = lastSeq.get();
+		if(last != headPar) {
+			int m = n;
+			while(m > 0 && values[m - 1] > key(last))
+				m--;
+			for(int j = m; j < n; j++)
+				insertPar(values[j], false);
+			n = m;
+		}
+		seqInsertions.addAndGet(n);
+		seqSize += n;
+
+		int[] preds = new int[MAX_HEIGHT], succs = new int[MAX_HEIGHT];
+		Arrays.fill(preds, headSeq);
+		int node = NULL;
+		for(int j = 0; j < n; j++) {
+			long v = values[j];
+			node = findFrom(preds, v, succs);
+
+			//The node already exists
+			if(node != NULL) {
+				addToCounter(node, 1);
+				continue;
+			}
+
+			node = newNode(v, generateHeight());
+
+			//Physically inserts the node
+			for(int i = 0; i < topLevel(node); i++) {
+				setNext(node, i, succs[i]);
+				setNext(preds[i], i, node);
+			}
+
+			//Updates the minimum value
+			if(v < minValue.get()) {
+				minValue.set(v);
+				currSeq = node;
+			}
+		}
+
+		//The sequential part had no end yet. It ends at the largest value of the batch, and only from now on, so that
+		//addPar() refuses every value until the whole batch is in place.
+		if(node != NULL && (last == headPar || last == headSeq))
+			lastSeq.set(node);
+	}
+
+	/**
+	 * Performs a clean find. Unlike the clean find of the paper, the read lock is taken before the find rather
+	 * than after it, and is left held. The sequential side frees emptied nodes straight onto the free lists,
+	 * where they are reused at once, so a find made outside the lock could follow the links of a node's new
+	 * occupant. The read section is the grace period instead: a node only leaves the parallel part through
+	 * moveHead() or chopHead(), and both wait for every read section to end, so no find that can still reach
+	 * a node is under way once the node is freed.
+	 * @param v The value to be inserted
+	 * @param preds An array to store the values before the node to be inserted
+	 * @param succs An array to store the values after the node to be inserted
+	 * @return The node, or NULL if it does not exist
+	 */
+	private int cleanFind(long v, int[] preds, int[] succs) {
+		lock.readLock();
+		return find(headPar, v, preds, succs);
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#addPar(long)
+	 */
+	public boolean addPar(long v) {
+		if(v <= key(lastSeq.get()))
+			return false;
+		return insertPar(v, true);
+	}
+
+	/**
+	 * Inserts a node into the parallel part of the skiplist
+	 * @param v The value to be inserted
+	 * @param checkEnd true if the value must be refused when it no longer lies beyond the sequential part
+	 * @return false if the value was refused, true if it was inserted
+	 */
+	private boolean insertPar(long v, boolean checkEnd) {
+		boolean x;
+		int b;
+		int node = NULL;
+		int[] preds = new int[MAX_HEIGHT], succs = new int[MAX_HEIGHT];
+		do {
+			x = false;
+			b = cleanFind(v, preds, succs);
+
+			//A moveHead() since the caller looked may have moved the end of the sequential part past the value.
+			//The end cannot move further while the read lock is held.
+			if(checkEnd && v <= key(lastSeq.get())) {
+				lock.readUnlock();
+				if(node != NULL)
+					free(node);
+				return false;
+			}
+
+			//A node is found
+			if(b != NULL) {
+				addToCounter(b, 1);
+				lock.readUnlock();
+				if(node != NULL)
+					free(node);
+				return true;
+			}
+
+			//The node is reused if a previous attempt lost the race to link it
+			if(node == NULL)
+				node = newNode(v, generateHeight());
+			b = node;
+
+			//Updates the node's links
+			for(int i = 0; i < topLevel(b); i++)
+				setNext(b, i, succs[i]);
+
+			//Linearization point 1. Attempts to update the previous link to point to the new node.
+			if(!compareAndSetNext(preds[0], 0, succs[0], b)) {
+				lock.readUnlock();
+				stats.addParRetries.increment();
+				x = true;
+			}
+		} while(x);
+
+		long m = minValue.get();
+
+		//Linearization point 2. Attempts to update the minimum value.
+		while(m > v && !minValue.compareAndSet(m, v))
+			m = minValue.get();
+
+		//Links the upper levels. The read lock is still held, so nodes cannot be unlinked and a failed CAS
+		//only means that another node got in the way.
+		linkUpperLevels(b, preds, succs);
+		lock.readUnlock();
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#addParAll(long[], int, int)
+	 */
+	public int addParAll(long[] values, int from, int to) {
+		lock.readLock();
+
+		//The smallest values may belong in the sequential part
+		long last = key(lastSeq.get());
+		int start = from;
+		while(start < to && values[start] <= last)
+			start++;
+
+		int[] preds = new int[MAX_HEIGHT], succs = new int[MAX_HEIGHT];
+		Arrays.fill(preds, headPar);
+		for(int j = start; j < to; j++) {
+			long v = values[j];
+			int b = findFrom(preds, v, succs);
+
+			//Nodes are never unlinked from the parallel part while the read lock is held, so a failed
+			//CAS only means that another node got in the way and the find can resume from preds
+			int node = NULL;
+			while(b == NULL) {
+				if(node == NULL)
+					node = newNode(v, generateHeight());
+				for(int i = 0; i < topLevel(node); i++)
+					setNext(node, i, succs[i]);
+				if(compareAndSetNext(preds[0], 0, succs[0], node)) {
+					linkUpperLevels(node, preds, succs);
+					node = NULL;
+					break;
+				}
+				stats.addParRetries.increment();
+				b = findFrom(preds, v, succs);
+			}
+			if(b != NULL)
+				addToCounter(b, 1);
+			if(node != NULL)
+				free(node);
+		}
+
+		//The smallest value of the batch is the only one that can lower the minimum
+		if(start < to) {
+			long m = minValue.get();
+			while(m > values[start] && !minValue.compareAndSet(m, values[start]))
+				m = minValue.get();
+		}
+
+		lock.readUnlock();
+		return start;
+	}
+
+	/**
+	 * Links a node that is already linked on the bottom level into its upper levels. Must be called while holding the read lock.
+	 * @param node The node
+	 * @param preds The predecessors of the node on every level
+	 * @param succs The successors of the node on every level
+	 */
+	private void linkUpperLevels(int node, int[] preds, int[] succs) {
+		long v = key(node);
+		for(int i = 1; i < topLevel(node); i++) {
+			while(!compareAndSetNext(preds[i], i, succs[i], node)) {
+				stats.addParRetries.increment();
+				findFrom(preds, v, succs);
+				setNext(node, i, succs[i]);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#moveHead()
+	 */
+	public boolean moveHead() {
+		int n = determineDynamically();
+		lock.writeLock();
+		currSeq = NULL;
+
+		//Finds the first n nodes in the parallel part
+		int pred = headPar;
+		int curr = getNext(headPar, 0);
+		int i = 0;
+		while(i < n && curr != tail) {
+			i += counter(curr);
+			if(currSeq == NULL) {
+				currSeq = curr;
+				minValue.set(key(curr));
+			}
+			pred = curr;
+			curr = getNext(curr, 0);
+		}
+
+		//The parallel part is empty
+		if(i == 0) {
+			for(i = MAX_HEIGHT - 1; i >= 0; i--) {
+				setNext(headPar, i, tail);
+				setNext(headSeq, i, tail);
+			}
+			lastSeq.set(headPar);
+			minValue.set(Long.MAX_VALUE);
+			seqSize = 0;
+			lock.writeUnlock();
+			return false;
+		}
+
+		seqSize = i;
+		stats.moveHeads.increment();
+		stats.movedElements.add(i);
+
+		//Update the sequential staring point to the parallel starting point
+		lastSeq.set(pred);
+		for(i = MAX_HEIGHT - 1; i >= 0; i--)
+			setNext(headSeq, i, getNext(headPar, i));
+
+		//Update the new sequential ending nodes to point to the dummy tail and update
+		//the parallel head to point to point to where the sequential ending ends.
+		int[] preds = new int[MAX_HEIGHT], succs = new int[MAX_HEIGHT];
+		find(headSeq, key(lastSeq.get()) + 1, preds, succs);
+		find(headSeq, key(lastSeq.get()), new int[MAX_HEIGHT], succs);
+		for(i = MAX_HEIGHT - 1; i >= 0; i--) {
+			setNext(preds[i], i, tail);
+			setNext(headPar, i, succs[i]);
+		}
+		lock.writeUnlock();
+		return true;
+	}
+
+	/**
+	 * Finds how many elements should be added to the sequential part of the list
+	 * @return The number of elements to be added to the sequential part of the list
+	 */
+	private int determineDynamically() {
+		int tmp = seqElementsToAdd.get();
+		int tmp2 = seqInsertions.get();
+
+		//If there were a lot of sequential insertions, halve the number of elements added.
+		//If there were few sequential insertions, double the number of elements added.
+		if(tmp2 > SEQUENTIAL_INSERTIONS_OVERLOAD)
+			seqElementsToAdd.compareAndSet(tmp, Math.max(tmp >> 1, MIN_SEQUENTIAL_ELEMENTS_TO_ADD));
+		else if(tmp2 < SEQUENTIAL_INSERTIONS_UNDERLOAD)
+			seqElementsToAdd.compareAndSet(tmp, Math.min(tmp << 1, MAX_SEQUENTIAL_ELEMENTS_TO_ADD));
+
+		seqInsertions.set(0);
+		return seqElementsToAdd.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#chopHead()
+	 */
+	public boolean chopHead() {
+		//The sequential part is empty
+		if(currSeq == NULL)
+			return false;
+
+		//Gets the last node of the sequential part on every level, or headSeq on levels it does not reach.
+		//headSeq itself points to the first node on every level.
+		int[] preds = new int[MAX_HEIGHT], succs = new int[MAX_HEIGHT];
+		find(headSeq, key(lastSeq.get()) + 1, preds, succs);
+
+		lock.writeLock();
+
+		//Splices the sequential part in front of the parallel part on the levels it reaches
+		for(int i = MAX_HEIGHT - 1; i >= 0; i--) {
+			if(preds[i] != headSeq) {
+				setNext(preds[i], i, getNext(headPar, i));
+				setNext(headPar, i, getNext(headSeq, i));
+			}
+			setNext(headSeq, i, tail);
+		}
+
+		lastSeq.set(headSeq);
+		currSeq = NULL;
+		stats.chopHeads.increment();
+		stats.choppedElements.add(seqSize);
+		seqSize = 0;
+
+		//The last moveHead() took more elements than the removes needed
+		int n = seqElementsToAdd.get();
+		seqElementsToAdd.compareAndSet(n, Math.max(n >> 1, MIN_SEQUENTIAL_ELEMENTS_TO_ADD));
+
+		lock.writeUnlock();
+		return true;
+	}
+
+	/**
+	 * Finds where the specified value resides or would reside in the skiplist. The parallel part must only be
+	 * searched while holding the read lock, since its nodes may be freed and reused once they leave it.
+	 * @param head The head of the skiplist
+	 * @param v The value to be inserted
+	 * @param preds An array to store the values before the node to be inserted
+	 * @param succs An array to store the values after the node to be inserted
+	 * @return The node if it exists, otherwise NULL
+	 */
+	private int find(int head, long v, int[] preds, int[] succs) {
+		int h = MAX_HEIGHT - 1;
+		while(h >= 0) {
+			int next = getNext(head, h); //The link to the next node
+
+			//If the node to be inserted is larger, move right. If not, move down
+			if(next != NULL && v > key(next)) {
+				head = next;
+			} else {
+				//Update the predecessors and successors to the current node and its successor
+				preds[h] = head;
+				succs[h] = next;
+				if(next != NULL && v == key(next))
+					succs[h] = getNext(next, h);
+				h--;
+			}
+		}
+
+		int next = getNext(head, 0);
+		if(next != NULL && v == key(next))
+			return next;
+		return NULL;
+	}
+
+	/**
+	 * Finds where the specified value resides or would reside, resuming from the predecessors of a
+	 * smaller value instead of from the head
+	 * @param preds The predecessors of a value smaller than v, updated to the predecessors of v
+	 * @param v The value to be inserted
+	 * @param succs An array to store the values after the node to be inserted
+	 * @return The node if it exists, otherwise NULL
+	 */
+	private int findFrom(int[] preds, long v, int[] succs) {
+		int head = preds[MAX_HEIGHT - 1];
+		for(int h = MAX_HEIGHT - 1; h >= 0; h--) {
+			//Start from whichever of the two candidates lies further right. headPar lies before every node.
+			if(head == headPar || (preds[h] != headPar && key(preds[h]) > key(head)))
+				head = preds[h];
+
+			int next = getNext(head, h);
+			while(v > key(next)) {
+				head = next;
+				next = getNext(head, h);
+			}
+			preds[h] = head;
+			succs[h] = next;
+			if(v == key(next))
+				succs[h] = getNext(next, h);
+		}
+
+		int next = getNext(preds[0], 0);
+		if(v == key(next))
+			return next;
+		return NULL;
+	}
+
+	/**
+	 * Generates a random height between 1 and the maximum height specified
+	 * @return The generated height
+	 */
+	private int generateHeight() {
+		int h = 1;
+		while(h < MAX_HEIGHT && ThreadLocalRandom.current().nextBoolean())
+			h++;
+		return h;
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#getMinValue()
+	 */
+	public long getMinValue() {
+		return minValue.get();
+	}
+
+	/**
+	 * Payloads cannot be stored in this skiplist, so there is nothing to keep in order among duplicates
+	 * @return false
+	 * @see ISkiplist#isStable()
+	 */
+	public boolean isStable() {
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see ISkiplist#stats()
+	 */
+	public QueueStats stats() {
+		return stats;
+	}
+
+	/**
+	 * Allocates a node with a counter of 1, taking it from the free list of its height if possible
+	 * @param key The key of the node
+	 * @param topLevel The height of the node
+	 * @return The address of the node
+	 */
+	private int newNode(long key, int topLevel) {
+		int node = popFree(topLevel);
+		if(node == NULL)
+			node = allocate(NEXT + topLevel);
+
+		LONG.set(chunk(node), offset(node, KEY), key);
+		put(node, TOP_LEVEL, topLevel);
+		put(node, COUNTER, 1);
+		for(int i = 0; i < topLevel; i++)
+			put(node, NEXT + i, NULL);
+		return node;
+	}
+
+	/**
+	 * Returns a node that is no longer linked into the skiplist to the free list of its height, where it may be
+	 * reused at once. The tag of the free list head keeps a stale pop from succeeding, but does nothing for
+	 * readers, so only nodes that no find can reach may be freed: nodes of the sequential part, which finds
+	 * reach only through the parallel part and under the read lock, and nodes that were never linked.
+	 * @param node The address of the node
+	 */
+	private void free(int node) {
+		int topLevel = topLevel(node);
+		while(true) {
+			long head = freeLists.get(topLevel);
+			setNext(node, 0, (int) head);
+			if(freeLists.compareAndSet(topLevel, head, tagged(head, node)))
+				return;
+		}
+	}
+
+	/**
+	 * Takes a node from the free list of the given height
+	 * @param topLevel The height of the node
+	 * @return The address of the node, or NULL if the free list is empty
+	 */
+	private int popFree(int topLevel) {
+		while(true) {
+			long head = freeLists.get(topLevel);
+			int node = (int) head;
+			if(node == NULL)
+				return NULL;
+			if(freeLists.compareAndSet(topLevel, head, tagged(head, getNext(node, 0))))
+				return node;
+		}
+	}
+
+	/**
+	 * Builds a new free list head, bumping the version so that a stale pop cannot succeed
+	 * @param head The current free list head
+	 * @param node The new first node
+	 * @return The tagged free list head
+	 */
+	private static long tagged(long head, int node) {
+		return (((head >>> 32) + 1) << 32) | (node & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Reserves space for a node in the slabs. A node never straddles two slabs.
+	 * @param size The size of the node, in ints
+	 * @return The address of the node
+	 */
+	private int allocate(int size) {
+		while(true) {
+			long start = allocated.getAndAdd(size);
+			long end = start + size - 1;
+
+			//The node would cross into the next slab; skip the rest of this one
+			if((start >>> CHUNK_BITS) != (end >>> CHUNK_BITS))
+				continue;
+
+			int chunk = (int) (start >>> CHUNK_BITS);
+			if(chunk >= MAX_CHUNKS)
+				throw new IllegalStateException("Off-heap skiplist is full");
+			if(CHUNK.getAcquire(chunks, chunk) == null)
+				createChunk(chunk);
+			return (int) start;
+		}
+	}
+
+	/**
+	 * Allocates a slab if no other thread has done so yet
+	 * @param chunk The index of the slab
+	 */
+	private synchronized void createChunk(int chunk) {
+		if(chunks[chunk] == null)
+			CHUNK.setRelease(chunks, chunk, ByteBuffer.allocateDirect(CHUNK_SIZE * Integer.BYTES));
+	}
+
+	//Accessors for the fields of a node. Nodes are published through volatile links, so plain reads suffice for key and topLevel.
+	private long key(int node) {
+		return (long) LONG.get(chunk(node), offset(node, KEY));
+	}
+
+	private int topLevel(int node) {
+		return get(node, TOP_LEVEL);
+	}
+
+	private int counter(int node) {
+		return (int) INT.getVolatile(chunk(node), offset(node, COUNTER));
+	}
+
+	private int addToCounter(int node, int delta) {
+		return (int) INT.getAndAdd(chunk(node), offset(node, COUNTER), delta) + delta;
+	}
+
+	private int getNext(int node, int level) {
+		return (int) INT.getVolatile(chunk(node), offset(node, NEXT + level));
+	}
+
+	private void setNext(int node, int level, int next) {
+		INT.setVolatile(chunk(node), offset(node, NEXT + level), next);
+	}
+
+	private boolean compareAndSetNext(int node, int level, int expected, int next) {
+		return INT.compareAndSet(chunk(node), offset(node, NEXT + level), expected, next);
+	}
+
+	private int get(int node, int field) {
+		return (int) INT.get(chunk(node), offset(node, field));
+	}
+
+	private void put(int node, int field, int value) {
+		INT.set(chunk(node), offset(node, field), value);
+	}
+
+	private ByteBuffer chunk(int node) {
+		return chunks[node >>> CHUNK_BITS];
+	}
+
+	private static int offset(int node, int field) {
+		return ((node & CHUNK_MASK) + field) * Integer.BYTES;
+	}
+}
\ No newline at end of file
@@ -1,199 +1,1191 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicStampedReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * The priority queue presented in the paper by Calciu, Mendes, and Herlihy
+ * The priority queue presented in the paper by Calciu, Mendes, and Herlihy. Values are 64-bit, and every long but
+ * Long.MAX_VALUE, which marks the end of the skiplist, can be added. The int methods are shorthands for values in
+ * the int range and must not be mixed with values outside of it. On a stable skiplist, equal values are removed
+ * in the order their adds completed. Values added with addEntry() can be decreased or removed through their handles.
  * @author Ryan Kelsey and Lee Berman
  *
+ * @param <T> The type of the payloads
  */
-public class PaperPriorityQueue implements IPriorityQueue {
-	private Skiplist skiplist;
-	private AtomicStampedReference<Integer>[] elim;
+public class PaperPriorityQueue<T> implements IPayloadPriorityQueue<T> {
+	private ISkiplist skiplist;
+	private IPayloadSkiplist payloadSkiplist; //The skiplist if it stores payloads, otherwise null
+	private EliminationArray elim;
 	private AtomicInteger uniqueStamp;
-	private Server server;
+	private Server[] servers;
+	private ReentrantLock headLock; //Held by a Server while it works on the sequential part of the skiplist
+	private ReentrantLock combinerLock; //Held by the client making a Server's pass in its place, or null if there are dedicated Servers
+	private WaitStrategy waitStrategy;
+	private AtomicInteger waitingRequests; //The number of WAITREQs posted and not yet finished
+	private boolean stable; //Whether equal values must leave in the order they arrived, which rules out eliminating them
+	private QueueStats stats; //The counters of the skiplist, which the priority queue also counts into
+	private volatile QueueLatencies latencies; //Records whether operations were eliminated, or null if not instrumented
 	
-	private final int ELIM_SIZE = 5; //Size of the elimination array
-	private final int MAX_ELIM_MIN = 2 * ELIM_SIZE; //Elimination attempts if added value is less than the skiplist minimum
-	private final int MAX_ELIM = 6 * ELIM_SIZE; //Elimination attempts if added value is greater than the skiplist minimum
+	private final int ELIM_SIZE = 5; //Initial and smallest width of the elimination array
+	private final int ELIM_CAPACITY = Math.max(ELIM_SIZE, 2 * Runtime.getRuntime().availableProcessors()); //Largest width of the elimination array
+	private final int MAX_ELIM_MIN = 2; //Elimination attempts per slot in use if added value is less than the skiplist minimum
+	private final int MAX_ELIM = 6; //Elimination attempts per slot in use if added value is greater than the skiplist minimum
+	private final int CHOP_WINDOW = 256; //Values a Server adds to and removes from the skiplist between checks of the chop policy
+	private final int CHOP_PRESSURE = 4; //How many times more values than it removes a Server must add in a window to chop the head
+	private final int MAX_COMBINING_ROUNDS = 4; //Passes a combining client makes while they keep finding requests, before it hands off
 	
-	//Reserved values
-	public final int EMPTY = Integer.MIN_VALUE;
-	public final int REMREQ = Integer.MIN_VALUE + 1;
-	public final int TAKEN = Integer.MIN_VALUE + 2;
-	public final int INPROG = Integer.MIN_VALUE + 3;
+	//Slot states. The value a slot carries is kept apart from its state, so no value is reserved for a state.
+	public final int EMPTY = 0;
+	public final int REMREQ = 1;
+	public final int TAKEN = 2;
+	public final int INPROG = 3;
+	public final int DRAINREQ = 4;
+	public final int WAITREQ = 5; //A remove request that stays posted while the queue is empty
+	public final int NONE = 6; //The answer to a remove request when the queue is empty
+	public final int VALUE = 7; //A value posted by add() if the stamp is positive, otherwise the answer to a remove or drain request
+	
+	private final int ELIMINATED = -1; //The stamp of a VALUE or TAKEN handed over by elimination rather than by a Server
 	
 	/**
 	 * Creates the priority queue and starts a Server
 	 * @param h The height of the skiplist to be used
 	 * @throws InterruptedException
 	 */
-	@SuppressWarnings("unchecked")
 	public PaperPriorityQueue(int h) throws InterruptedException {
-		skiplist = new Skiplist(h);
-		elim = new AtomicStampedReference[ELIM_SIZE];
-		for(int i = 0; i < ELIM_SIZE; i++)
-			elim[i] = new AtomicStampedReference<Integer>(EMPTY, 0);
+		this(new Skiplist(h));
+	}
+	
+	/**
+	 * Creates the priority queue on top of the given skiplist and starts a Server
+	 * @param skiplist The skiplist to be used, such as a Skiplist or an OffHeapSkiplist
+	 * @throws InterruptedException
+	 */
+	public PaperPriorityQueue(ISkiplist skiplist) throws InterruptedException {
+		this(skiplist, WaitStrategy.BUSY_SPIN);
+	}
+	
+	/**
+	 * Creates the priority queue on top of the given skiplist and starts a Server
+	 * @param skiplist The skiplist to be used, such as a Skiplist or an OffHeapSkiplist
+	 * @param waitStrategy How clients wait for their requests to be served and the Server waits for requests
+	 * @throws InterruptedException
+	 */
+	public PaperPriorityQueue(ISkiplist skiplist, WaitStrategy waitStrategy) throws InterruptedException {
+		this(skiplist, waitStrategy, 1);
+	}
+	
+	/**
+	 * Creates the priority queue on top of the given skiplist and starts several Servers. Each Server
+	 * serves its own share of the elimination array, and they take turns on the sequential part of the skiplist.
+	 * With no Servers, no thread is started: a client waiting for its request takes a combiner lock and makes
+	 * the Server's pass over the whole elimination array itself, for a few rounds, before handing off to another
+	 * waiting client. The queue then costs no CPU while idle and needs no stop(), and clients may be virtual threads.
+	 * Payloads and handles need an IPayloadSkiplist such as a Skiplist. On an OffHeapSkiplist they are refused.
+	 * @param skiplist The skiplist to be used, such as a Skiplist or an OffHeapSkiplist
+	 * @param waitStrategy How clients wait for their requests to be served and the Servers wait for requests
+	 * @param numServers The number of Servers, or 0 to let waiting clients combine their requests instead
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings("unchecked")
+	public PaperPriorityQueue(ISkiplist skiplist, WaitStrategy waitStrategy, int numServers) throws InterruptedException {
+		if(numServers < 0)
+			throw new IllegalArgumentException("The number of Servers cannot be negative");
+		
+		this.skiplist = skiplist;
+		payloadSkiplist = skiplist instanceof IPayloadSkiplist ? (IPayloadSkiplist) skiplist : null;
+		stats = skiplist.stats();
+		this.waitStrategy = waitStrategy;
+		elim = new EliminationArray(ELIM_CAPACITY, ELIM_SIZE, EMPTY);
 		uniqueStamp = new AtomicInteger(1);
+		waitingRequests = new AtomicInteger(0);
+		stable = skiplist.isStable();
 		
-		server = new Server();
-		server.start();
+		headLock = new ReentrantLock();
+		
+		//The combining clients share a single Server without a thread, which serves every slot
+		if(numServers == 0) {
+			combinerLock = new ReentrantLock();
+			servers = (Server[]) new PaperPriorityQueue<?>.Server[] {new Server(0, false)};
+			return;
+		}
+		servers = (Server[]) new PaperPriorityQueue<?>.Server[numServers];
+		for(int i = 0; i < numServers; i++)
+			servers[i] = new Server(i, true);
+		for(Server server : servers)
+			server.thread.start();
 	}
 	
 	/* (non-Javadoc)
 	 * @see IPriorityQueue#removeMin(int)
 	 */
 	public int removeMin(int threadId) {
-		int pos = threadId % ELIM_SIZE;
-		int[] stampHolder = new int[1];
+		long value = takeMin(threadId, null, 0);
+		return value == Long.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPayloadPriorityQueue#removeMinEntry(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public Tuple<Integer, T> removeMinEntry(int threadId) {
+		Object[] payloadHolder = new Object[1];
+		long value = takeMin(threadId, payloadHolder, 0);
+		return new Tuple<Integer, T>(value == Long.MAX_VALUE ? Integer.MAX_VALUE : (int) value, (T) payloadHolder[0]);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPayloadPriorityQueue#removeMinLongEntry(int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Tuple<Long, T> removeMinLongEntry(int threadId) {
+		Object[] payloadHolder = new Object[1];
+		long value = takeMin(threadId, payloadHolder, 0);
+		return new Tuple<Long, T>(value, (T) payloadHolder[0]);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPriorityQueue#tryRemoveMin(int)
+	 */
+	public OptionalInt tryRemoveMin(int threadId) {
+		long value = takeMin(threadId, null, 0);
+		return value == Long.MAX_VALUE ? OptionalInt.empty() : OptionalInt.of((int) value);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPriorityQueue#tryRemoveMinLong(int)
+	 */
+	@Override
+	public OptionalLong tryRemoveMinLong(int threadId) {
+		long value = takeMin(threadId, null, 0);
+		return value == Long.MAX_VALUE ? OptionalLong.empty() : OptionalLong.of(value);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+	 */
+	public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+		long value = awaitMin(timeout, unit, threadId);
+		return value == Long.MAX_VALUE ? OptionalInt.empty() : OptionalInt.of((int) value);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPriorityQueue#removeMinLong(long, java.util.concurrent.TimeUnit, int)
+	 */
+	@Override
+	public OptionalLong removeMinLong(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+		long value = awaitMin(timeout, unit, threadId);
+		return value == Long.MAX_VALUE ? OptionalLong.empty() : OptionalLong.of(value);
+	}
+	
+	/**
+	 * Removes the minimum value from the priority queue, waiting up to the given time for one to be added
+	 * @param timeout How long to wait
+	 * @param unit The unit of timeout
+	 * @param threadId The ID of the thread
+	 * @return The minimum value, or Long.MAX_VALUE if the timeout elapsed first
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	private long awaitMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+		if(Thread.interrupted())
+			throw new InterruptedException();
+		if(timeout <= 0)
+			return takeMin(threadId, null, 0);
+		
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if(deadline == 0)
+			deadline = 1; //0 means no deadline
+		
+		//A request answered with NONE lost a race for the last value; try again while time remains
 		while(true) {
-			Integer value = elim[pos].get(stampHolder);
-			int stamp = stampHolder[0];
+			long value = takeMin(threadId, null, deadline);
+			if(value != Long.MAX_VALUE)
+				return value;
+			if(Thread.interrupted())
+				throw new InterruptedException();
+			if(System.nanoTime() - deadline >= 0)
+				return Long.MAX_VALUE;
+		}
+	}
+	
+	/**
+	 * Removes the minimum value from the priority queue
+	 * @param threadId The ID of the thread
+	 * @param payloadHolder An array whose first element receives the payload, or null if the payload is not needed
+	 * @param deadline 0 to be answered with NONE at once if the queue is empty, otherwise the System.nanoTime() up to
+	 * which to wait for a value to be added. The wait also ends early if the thread is interrupted.
+	 * @return The minimum value from the priority queue, or Long.MAX_VALUE if the request was answered with NONE
+	 */
+	private long takeMin(int threadId, Object[] payloadHolder, long deadline) {
+		long start = latencies == null ? 0 : System.nanoTime();
+		int request = deadline == 0 ? REMREQ : WAITREQ;
+		int width = elim.width();
+		int pos = threadId % width;
+		for(int attempt = 1; ; attempt++) {
+			long slot = elim.get(pos);
+			int state = EliminationArray.state(slot);
 			
-			//If we discover a value smaller than the skiplist minimum, attempt to return it
-			if(isValue(value) && stamp > 0 && value <= skiplist.getMinValue())
-				if(elim[pos].compareAndSet(value, TAKEN, stamp, 0))
-					return value;
+			//If we discover a value smaller than the skiplist minimum, attempt to return it. The value and payload
+			//are read first; the stamp guarantees they still belong to the slot if the CAS succeeds.
+			if(state == VALUE && EliminationArray.stamp(slot) > 0) {
+				long value = elim.getValue(pos);
+				if(eliminable(value)) {
+					Object payload = elim.getPayload(pos);
+					if(elim.compareAndSet(pos, slot, TAKEN, ELIMINATED)) {
+						wake(pos);
+						
+						//The entry of a handle that was decreased or removed is dropped, and the search goes on
+						if(!claim(value, payload))
+							continue;
+						if(payloadHolder != null)
+							payloadHolder[0] = unwrap(payload);
+						return record(start, value, true);
+					}
+					elim.recordCollision();
+				}
+			}
 			
 			//If we discover an empty spot in the elimination array, attempt to make a remove request
 			//and wait for the Server or add() to populate the slot
-			if(value == EMPTY) {
-				if(elim[pos].compareAndSet(value, REMREQ, stamp, uniqueStamp())) {
-					do {
-						value = elim[pos].getReference();
-					} while(value == REMREQ || value == INPROG);
-					elim[pos] = new AtomicStampedReference<Integer>(EMPTY, 0);
-					return value;
+			if(state == EMPTY) {
+				int requestStamp = uniqueStamp();
+				if(elim.compareAndSet(pos, slot, request, requestStamp)) {
+					if(request == WAITREQ)
+						waitingRequests.incrementAndGet();
+					signalServer(pos);
+					state = await(pos, false, deadline);
+					
+					//The wait ended before the request was served. Withdraw it, unless the Server or add()
+					//claimed it in the meantime, in which case the answer is about to arrive.
+					if(state == WAITREQ) {
+						if(elim.compareAndSet(pos, EliminationArray.pack(WAITREQ, requestStamp), EMPTY, 0)) {
+							waitingRequests.decrementAndGet();
+							return Long.MAX_VALUE;
+						}
+						state = await(pos, false, 0);
+					}
+					if(request == WAITREQ)
+						waitingRequests.decrementAndGet();
+					
+					boolean eliminated = EliminationArray.stamp(elim.get(pos)) == ELIMINATED;
+					long value = state == VALUE ? elim.getValue(pos) : Long.MAX_VALUE;
+					Object payload = takePayload(pos);
+					elim.set(pos, EMPTY, 0);
+					
+					//The Server answers with entries it has claimed already. An add() may hand over the entry of a
+					//handle that was decreased or removed in the meantime, which is dropped for a new request.
+					if(eliminated && !claim(value, payload))
+						continue;
+					if(payloadHolder != null)
+						payloadHolder[0] = unwrap(payload);
+					return record(start, value, eliminated);
 				}
+				elim.recordCollision();
 			}
-			pos = (pos + 1) % ELIM_SIZE;
+			
+			//A full sweep found no usable slot
+			if(attempt % width == 0)
+				elim.recordCollision();
+			pos = (pos + 1) % width;
 		}
 	}
 	
+	/**
+	 * Records the latency of a remove if the priority queue is instrumented
+	 * @param start The System.nanoTime() at which the remove started
+	 * @param value The value removed, or Long.MAX_VALUE if there was none
+	 * @param eliminated true if the value was handed over by an adder, false if it came from the skiplist
+	 * @return value
+	 */
+	private long record(long start, long value, boolean eliminated) {
+		QueueLatencies latencies = this.latencies;
+		if(latencies != null && value != Long.MAX_VALUE && start != 0)
+			latencies.record(eliminated ? QueueLatencies.Series.REMOVE_ELIMINATED : QueueLatencies.Series.REMOVE_SKIPLIST, System.nanoTime() - start);
+		return value;
+	}
+	
 	/* (non-Javadoc)
 	 * @see IPriorityQueue#add(int, int)
 	 */
 	public boolean add(int inValue, int threadId) {
-		//Reserved values cannot be added to the priority queue
-		if(!isValue(inValue))
+		return addLong(inValue, null, threadId);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPayloadPriorityQueue#add(int, java.lang.Object, int)
+	 */
+	public boolean add(int inValue, T payload, int threadId) {
+		return addLong(inValue, payload, threadId);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPriorityQueue#addLong(long, int)
+	 */
+	@Override
+	public boolean addLong(long inValue, int threadId) {
+		return addLong(inValue, null, threadId);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPayloadPriorityQueue#addLong(long, java.lang.Object, int)
+	 */
+	@Override
+	public boolean addLong(long inValue, T payload, int threadId) {
+		//The largest value marks the end of the skiplist
+		if(inValue == Long.MAX_VALUE)
+			return false;
+		if(payload != null)
+			requirePayloads();
+		put(inValue, payload, threadId);
+		return true;
+	}
+	
+	/**
+	 * Adds a value with a payload to the priority queue and returns a handle to it, through which the value can
+	 * be decreased with decreaseKey() or removed with remove() while it is in the queue. Needs a skiplist that
+	 * stores payloads.
+	 * @param inValue The value to be added
+	 * @param payload The payload to be stored with the value, which removeMinEntry() hands out with it
+	 * @param threadId The ID of the thread
+	 * @return The handle, or null if the value is Long.MAX_VALUE
+	 * @throws UnsupportedOperationException if the skiplist cannot store payloads
+	 */
+	public Handle<T> addEntry(long inValue, T payload, int threadId) {
+		requirePayloads();
+		if(inValue == Long.MAX_VALUE)
+			return null;
+		Handle<T> handle = new Handle<T>(inValue, payload);
+		put(inValue, handle, threadId);
+		return handle;
+	}
+	
+	/**
+	 * Decreases a value added with addEntry(). The smaller value is added as a new entry of the handle, and the
+	 * old entry is then taken out of its bucket if it is still in the parallel part. An old entry that reached the
+	 * sequential part is dropped once a remove reaches it. Until the call returns, a remove may take the value
+	 * with either the old or the new value.
+	 * @param handle The handle returned by addEntry()
+	 * @param newValue The new value
+	 * @param threadId The ID of the thread
+	 * @return true if the value was decreased, even if a remove has taken it with the new value since, false if
+	 * newValue is not smaller or the value left the queue with its old value or through remove() first
+	 */
+	public boolean decreaseKey(Handle<T> handle, long newValue, int threadId) {
+		int state = handle.beginDecrease(newValue);
+		if(state < 0)
 			return false;
 		
+		//The new entry is live from the moment it can be found, and the old one until the decrease completes
+		long oldValue = handle.value;
+		put(newValue, handle, threadId);
+		payloadSkiplist.discard(oldValue, handle);
+		handle.value = newValue;
+		return handle.endDecrease(state);
+	}
+	
+	/**
+	 * Removes a value added with addEntry() from the priority queue. Its entry is taken out of its bucket if it is
+	 * in the parallel part, and dropped once a remove reaches it otherwise.
+	 * @param handle The handle returned by addEntry()
+	 * @return true if the value was removed, false if it had left the queue already
+	 */
+	public boolean remove(Handle<T> handle) {
+		if(!handle.delete())
+			return false;
+		payloadSkiplist.discard(handle.value, handle);
+		return true;
+	}
+	
+	/**
+	 * Checks that the skiplist can store payloads. It is checked before the value is offered anywhere, so that
+	 * the outcome does not depend on whether the value would have been eliminated or gone into the skiplist.
+	 * @throws UnsupportedOperationException if the skiplist is not an IPayloadSkiplist
+	 */
+	private void requirePayloads() {
+		if(payloadSkiplist == null)
+			throw new UnsupportedOperationException(skiplist.getClass().getSimpleName() + " cannot store payloads");
+	}
+	
+	/**
+	 * Adds a value to the parallel part of the skiplist
+	 * @param inValue The value to be added
+	 * @param payload The payload of the value, or null if it has none, which it always is without an IPayloadSkiplist
+	 * @return false if the value belongs in the sequential part, true if successful
+	 */
+	private boolean addPar(long inValue, Object payload) {
+		return payload == null ? skiplist.addPar(inValue) : payloadSkiplist.addPar(inValue, payload);
+	}
+	
+	/**
+	 * Adds a value other than Long.MAX_VALUE to the priority queue and records how it went
+	 * @param inValue The value to be added
+	 * @param payload The payload of the value, a Handle if it was added with addEntry(), or null if it has none
+	 * @param threadId The ID of the thread
+	 */
+	private void put(long inValue, Object payload, int threadId) {
+		QueueLatencies latencies = this.latencies;
+		long start = latencies == null ? 0 : System.nanoTime();
+		boolean eliminated = insert(inValue, payload, threadId);
+		if(eliminated)
+			stats.eliminationHits.increment();
+		if(latencies != null)
+			latencies.record(eliminated ? QueueLatencies.Series.ADD_ELIMINATED : QueueLatencies.Series.ADD_SKIPLIST, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Adds a value other than Long.MAX_VALUE to the priority queue
+	 * @param inValue The value to be added
+	 * @param payload The payload of the value, or null if it has none
+	 * @param threadId The ID of the thread
+	 * @return true if the value was handed directly to a remover, false if it went into the skiplist
+	 */
+	private boolean insert(long inValue, Object payload, int threadId) {
+		int width = elim.width();
 		int rep;
-		if(inValue <= skiplist.getMinValue())
-			rep = MAX_ELIM_MIN;
+		if(eliminable(inValue))
+			rep = MAX_ELIM_MIN * width;
 		else {
-			if(skiplist.addPar(inValue))
-				return true;
-			rep = MAX_ELIM;
+			if(addPar(inValue, payload)) {
+				signalWaitingRequests();
+				return false;
+			}
+			rep = MAX_ELIM * width;
 		}
 		
-		int pos = threadId % ELIM_SIZE;
-		int[] stampHolder = new int[1];
+		int pos = threadId % width;
 		
 		//Attempt to eliminate with a remove request rep times
 		while(rep > 0) {
-			Integer value = elim[pos].get(stampHolder);
-			int stamp = stampHolder[0];
-			if(value == REMREQ && inValue <= skiplist.getMinValue())
-				if(elim[pos].compareAndSet(value, inValue, stamp, 0))
+			long slot = elim.get(pos);
+			int state = EliminationArray.state(slot);
+			if((state == REMREQ || state == WAITREQ) && eliminable(inValue))
+				if(publish(pos, slot, inValue, payload, ELIMINATED))
 					return true;
 			rep--;
-			pos = (pos + 1) % ELIM_SIZE;
+			pos = (pos + 1) % width;
 		}
+		elim.recordMiss();
+		stats.eliminationMisses.increment();
 		
-		if(skiplist.addPar(inValue))
-			return true;
+		if(addPar(inValue, payload)) {
+			signalWaitingRequests();
+			return false;
+		}
 		
-		while(true) {
-			Integer value = elim[pos].get(stampHolder);
-			int stamp = stampHolder[0];
+		for(int attempt = 1; ; attempt++) {
+			long slot = elim.get(pos);
+			int state = EliminationArray.state(slot);
 			
 			//If a remove request is found, attempt to serve it inValue if it's small enough
-			if(value == REMREQ && inValue <= skiplist.getMinValue())
-				if(elim[pos].compareAndSet(value, inValue, stamp, 0))
+			if((state == REMREQ || state == WAITREQ) && eliminable(inValue))
+				if(publish(pos, slot, inValue, payload, ELIMINATED))
 					return true;
 			
 			//If an empty slot is found, attempt to post inValue and wait until the Server or remove() removes it
-			if(value == EMPTY) {
-				if(elim[pos].compareAndSet(value, inValue, stamp, uniqueStamp())) {
-					do {
-						value = elim[pos].getReference();
-					} while(value != TAKEN);
-					elim[pos] = new AtomicStampedReference<Integer>(EMPTY, 0);
-					return true;
+			if(state == EMPTY) {
+				if(publish(pos, slot, inValue, payload, uniqueStamp())) {
+					signalServer(pos);
+					await(pos, true, 0);
+					boolean eliminated = EliminationArray.stamp(elim.get(pos)) == ELIMINATED;
+					elim.setPayload(pos, null);
+					elim.set(pos, EMPTY, 0);
+					return eliminated;
 				}
 			}
 			
-			pos = (pos + 1) % ELIM_SIZE;
+			//A full sweep found no usable slot
+			if(attempt % width == 0)
+				elim.recordCollision();
+			pos = (pos + 1) % width;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPriorityQueue#addAll(int[], int)
+	 */
+	public boolean addAll(int[] values, int threadId) {
+		long[] sorted = new long[values.length];
+		for(int i = 0; i < values.length; i++)
+			sorted[i] = values[i];
+		Arrays.sort(sorted);
+		return addSorted(sorted, threadId);
+	}
+	
+	/**
+	 * Adds a batch of 64-bit values to the priority queue
+	 * @param values The values to be added
+	 * @param threadId The ID of the thread
+	 * @return true if every value was added, false if Long.MAX_VALUE was among them
+	 */
+	public boolean addAllLong(long[] values, int threadId) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return addSorted(sorted, threadId);
+	}
+	
+	/**
+	 * Adds a sorted batch of values to the priority queue
+	 * @param sorted The values to be added, sorted in ascending order
+	 * @param threadId The ID of the thread
+	 * @return true if every value was added, false if Long.MAX_VALUE was among them
+	 */
+	private boolean addSorted(long[] sorted, int threadId) {
+		//The largest value marks the end of the skiplist, and sorts after every other value
+		int to = sorted.length;
+		while(to > 0 && sorted[to - 1] == Long.MAX_VALUE)
+			to--;
+		
+		//Splices the batch into the parallel part in one traversal. The smallest values that belong in
+		//the sequential part go through elimination and the Server as usual.
+		int start = skiplist.addParAll(sorted, 0, to);
+		if(start < to)
+			signalWaitingRequests();
+		for(int i = 0; i < start; i++)
+			addLong(sorted[i], null, threadId);
+		return to == sorted.length;
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPriorityQueue#drainMin(int[], int, int)
+	 */
+	public int drainMin(int[] out, int max, int threadId) {
+		return drain(out, Math.min(max, out.length), threadId);
+	}
+	
+	/**
+	 * Removes up to max of the smallest 64-bit values from the priority queue without waiting for more to arrive
+	 * @param out An array to store the removed values in, in ascending order
+	 * @param max The maximum number of values to remove
+	 * @param threadId The ID of the thread
+	 * @return The number of values removed
+	 */
+	public int drainMinLong(long[] out, int max, int threadId) {
+		return drain(out, Math.min(max, out.length), threadId);
+	}
+	
+	/**
+	 * Posts a drain request for the Server and waits for it to be filled
+	 * @param out The int[] or long[] to store the removed values in
+	 * @param max The maximum number of values to remove, no more than the length of out
+	 * @param threadId The ID of the thread
+	 * @return The number of values removed
+	 */
+	private int drain(Object out, int max, int threadId) {
+		if(max <= 0)
+			return 0;
+		
+		int width = elim.width();
+		int pos = threadId % width;
+		for(int attempt = 1; ; attempt++) {
+			long slot = elim.get(pos);
+			
+			//Claims an empty slot, describes the request and posts it for the Server. The output array travels as the
+			//payload of the slot and the maximum as its value, on the cache line of the slot.
+			if(EliminationArray.state(slot) == EMPTY && elim.compareAndSet(pos, slot, INPROG, 0)) {
+				elim.setPayload(pos, out);
+				elim.setValue(pos, max);
+				elim.set(pos, DRAINREQ, uniqueStamp());
+				signalServer(pos);
+				
+				//The answer carries the number of values removed
+				await(pos, false, 0);
+				int n = (int) elim.getValue(pos);
+				elim.setPayload(pos, null);
+				elim.set(pos, EMPTY, 0);
+				return n;
+			}
+			
+			//A full sweep found no usable slot
+			if(attempt % width == 0)
+				elim.recordCollision();
+			pos = (pos + 1) % width;
+		}
+	}
+	
+	/**
+	 * Attempts to place a value in a slot of the elimination array. The slot is claimed with INPROG first,
+	 * so that the value and its payload are in place before the slot shows VALUE.
+	 * @param pos The slot
+	 * @param slot The packed slot previously read
+	 * @param value The value to be placed
+	 * @param payload The payload of the value, or null if it has none
+	 * @param stamp The stamp to be placed with the value
+	 * @return true if successful
+	 */
+	private boolean publish(int pos, long slot, long value, Object payload, int stamp) {
+		if(!elim.compareAndSet(pos, slot, INPROG, 0)) {
+			elim.recordCollision();
+			return false;
+		}
+		elim.setValue(pos, value);
+		if(payload != null)
+			elim.setPayload(pos, payload);
+		elim.set(pos, VALUE, stamp);
+		
+		//A remove request was served directly
+		if(stamp == ELIMINATED)
+			wake(pos);
+		return true;
+	}
+	
+	/**
+	 * Waits for the request posted in a slot to be served, following the wait strategy
+	 * @param pos The slot owned by the caller
+	 * @param untilTaken true to wait for a posted value to be taken, false to wait for a remove or drain request to be answered
+	 * @param deadline 0 to wait for as long as it takes, otherwise the System.nanoTime() at which to give up. The wait
+	 * also gives up if the thread is interrupted.
+	 * @return The state of the slot once the request is served, or the unserved state if the wait gave up
+	 */
+	private int await(int pos, boolean untilTaken, long deadline) {
+		int round = 0;
+		while(true) {
+			int state = elim.getState(pos);
+			if(isServed(state, untilTaken) || (deadline != 0 && (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()))) {
+				if(!untilTaken)
+					stats.removeWaitSpins.add(round);
+				return state;
+			}
+			
+			//Without Servers, the waiting clients serve the elimination array themselves
+			if(combinerLock != null)
+				combine(pos);
+			
+			//Registers as the slot's waiter before checking the slot once more, so that a wake-up is never lost.
+			//A combiner that was busy hands off to a registered waiter once it is done.
+			if(waitStrategy.idle(round++)) {
+				elim.setWaiter(pos, Thread.currentThread());
+				if(!isServed(elim.getState(pos), untilTaken) && (combinerLock == null || !combine(pos))) {
+					if(deadline == 0)
+						LockSupport.park(this);
+					else
+						LockSupport.parkNanos(this, deadline - System.nanoTime());
+				}
+				elim.setWaiter(pos, null);
+			}
+		}
+	}
+	
+	/**
+	 * Makes a Server's pass over the elimination array in place of a Server, unless another client is doing so.
+	 * The passes go on while they keep finding requests, up to MAX_COMBINING_ROUNDS, so that no client serves
+	 * the others for long. Requests still waiting afterwards are handed off to their clients.
+	 * @param pos The slot owned by the caller
+	 * @return true if the caller made the passes, false if another client is combining
+	 */
+	private boolean combine(int pos) {
+		if(!combinerLock.tryLock())
+			return false;
+		try {
+			for(int round = 0; round < MAX_COMBINING_ROUNDS && servers[0].serve(); round++);
+		} finally {
+			combinerLock.unlock();
+		}
+		handOff(pos);
+		return true;
+	}
+	
+	/**
+	 * Wakes up the client of a request that is waiting to be served, so that it becomes the next combiner. A client
+	 * registers as its slot's waiter before it tries the combiner lock for the last time, and the combiner releases
+	 * the lock before it looks for waiters, so one of the two always sees the other.
+	 * @param skip The slot of the caller, which is not handed off to, or -1
+	 */
+	private void handOff(int skip) {
+		if(!waitStrategy.blocks())
+			return;
+		int width = elim.scanWidth();
+		for(int i = 0; i < width; i++) {
+			if(i == skip)
+				continue;
+			long slot = elim.get(i);
+			int state = EliminationArray.state(slot);
+			boolean pending = state == REMREQ || state == DRAINREQ || (state == VALUE && EliminationArray.stamp(slot) > 0)
+				|| (state == WAITREQ && skiplist.getMinValue() != Long.MAX_VALUE);
+			Thread waiter = pending ? elim.getWaiter(i) : null;
+			if(waiter != null) {
+				LockSupport.unpark(waiter);
+				return;
+			}
 		}
 	}
 	
 	/**
-	 * Determines if a value is a reserved value or not.
-	 * @param v The value to be checked
-	 * @return false if the value is reserved
+	 * Determines if the request posted in a slot has been served
+	 * @param state The state of the slot
+	 * @param untilTaken true if a posted value is waiting to be taken, false if a remove or drain request is waiting to be answered
+	 * @return true if the request has been served
 	 */
-	private boolean isValue(int v) {
-		return v > INPROG;
+	private boolean isServed(int state, boolean untilTaken) {
+		if(untilTaken)
+			return state == TAKEN;
+		return state != REMREQ && state != WAITREQ && state != DRAINREQ && state != INPROG;
 	}
 	
 	/**
-	 * Atomically increments the unique stamp and returns the new value
+	 * Wakes up the client waiting on a slot, if it is blocked
+	 * @param pos The slot that was just served
+	 */
+	private void wake(int pos) {
+		if(!waitStrategy.blocks())
+			return;
+		Thread waiter = elim.getWaiter(pos);
+		if(waiter != null)
+			LockSupport.unpark(waiter);
+	}
+	
+	/**
+	 * Wakes up the Servers after a value was added to the skiplist, if they are blocked while a WAITREQ is posted.
+	 * Without Servers, the client of a WAITREQ is woken up to combine instead.
+	 */
+	private void signalWaitingRequests() {
+		if(!waitStrategy.blocks() || waitingRequests.get() == 0)
+			return;
+		if(combinerLock != null)
+			handOff(-1);
+		for(Server server : servers)
+			if(server.parked)
+				LockSupport.unpark(server.thread);
+	}
+	
+	/**
+	 * Wakes up the Server responsible for a slot after a request was posted there, if it is blocked
+	 * @param pos The slot of the request
+	 */
+	private void signalServer(int pos) {
+		Server server = servers[pos % servers.length];
+		if(waitStrategy.blocks() && server.parked)
+			LockSupport.unpark(server.thread);
+	}
+	
+	/**
+	 * Takes the payload that was handed to a remove request and clears it from the slot
+	 * @param pos The slot owned by the caller
+	 * @return The payload, or null if the value came without one
+	 */
+	private Object takePayload(int pos) {
+		Object payload = elim.getPayload(pos);
+		if(payload != null)
+			elim.setPayload(pos, null);
+		return payload;
+	}
+	
+	/**
+	 * Claims a value for a remover. A value added with a handle is only claimed if it is the live entry of its
+	 * handle, which then leaves the queue for good.
+	 * @param value The value
+	 * @param payload The payload of the value
+	 * @return false if the value is an entry of a handle that was decreased or removed, and must be dropped
+	 */
+	private boolean claim(long value, Object payload) {
+		return !(payload instanceof Handle<?>) || ((Handle<?>) payload).claim(value);
+	}
+	
+	/**
+	 * Fetches the payload to hand out with a removed value
+	 * @param payload The payload stored with the value
+	 * @return The payload of the handle if the value was added with one, otherwise the payload itself
+	 */
+	private Object unwrap(Object payload) {
+		return payload instanceof Handle<?> ? ((Handle<?>) payload).payload : payload;
+	}
+	
+	/**
+	 * Determines if a value may be handed directly to a remover instead of going through the skiplist. On a stable
+	 * skiplist a value equal to the minimum may not, since the duplicates already in the skiplist leave first.
+	 * @param v The value
+	 * @return true if the value is no larger than the skiplist minimum, or smaller if the skiplist is stable
+	 */
+	private boolean eliminable(long v) {
+		long min = skiplist.getMinValue();
+		return stable ? v < min : v <= min;
+	}
+	
+	/**
+	 * Atomically increments the unique stamp and returns the new value. Stamps stay positive
+	 * when the counter wraps around, since a stamp of 0 or ELIMINATED marks values that were handed out.
 	 * @return The value of the incremented stamp
 	 */
 	private int uniqueStamp() {
-		return uniqueStamp.getAndIncrement();
+		return (uniqueStamp.getAndIncrement() & Integer.MAX_VALUE) | 1;
 	}
 	
 	/**
-	 * Stops the Server
+	 * Fetches the counters of the priority queue and its skiplist. They can also be read over JMX once registered
+	 * with QueueStats.register().
+	 * @return The counters
+	 */
+	public QueueStats stats() {
+		return stats;
+	}
+	
+	/**
+	 * Starts or stops recording whether each add and remove was eliminated, and how long it took
+	 * @param latencies The histograms to record into, or null to stop recording
+	 */
+	public void setLatencies(QueueLatencies latencies) {
+		this.latencies = latencies;
+	}
+	
+	/**
+	 * Stops the Servers. Does nothing if the clients combine their requests.
 	 */
 	public void stop() {
-		server.run = false;
+		for(Server server : servers) {
+			server.run = false;
+			if(server.thread != null)
+				LockSupport.unpark(server.thread);
+		}
+	}
+	
+	/**
+	 * A handle to a value added with addEntry(). A decrease adds a new entry for the handle and then takes the old
+	 * one out of the parallel part, but an old entry that reached the sequential part stays there. Only the entry
+	 * with the current value is live, and the others are dropped once a remove reaches them. Values only decrease,
+	 * so the value of an entry tells it apart from the other entries of its handle.
+	 * @author Ryan Kelsey and Lee Berman
+	 *
+	 * @param <T> The type of the payload
+	 */
+	public static class Handle<T> {
+		private final T payload;
+		private volatile long value; //The value of the live entry
+		private volatile long pending; //The value of the entry being added by decreaseKey(), or value if there is none
+		private volatile int state; //A multiple of 4 while in the queue, 1 more while decreaseKey() checks the new value and 2 more while it adds an entry, or TAKEN, TAKEN_DECREASED or REMOVED
+		
+		private static final int TAKEN = -1;
+		private static final int REMOVED = -2;
+		private static final int TAKEN_DECREASED = -3; //Taken through the entry of a decrease still under way
+		private static final VarHandle STATE;
+		
+		static {
+			try {
+				STATE = MethodHandles.lookup().findVarHandle(Handle.class, "state", int.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+		
+		private Handle(long value, T payload) {
+			this.value = value;
+			this.pending = value;
+			this.payload = payload;
+		}
+		
+		/**
+		 * Fetches the value last given to the handle by addEntry() or decreaseKey()
+		 * @return The value
+		 */
+		public long getValue() {
+			return value;
+		}
+		
+		/**
+		 * Fetches the payload
+		 * @return The payload given to addEntry()
+		 */
+		public T getPayload() {
+			return payload;
+		}
+		
+		/**
+		 * Determines if the value is still in the priority queue
+		 * @return false once the value was taken by a remove or removed through the handle
+		 */
+		public boolean isQueued() {
+			return state >= 0;
+		}
+		
+		/**
+		 * Claims an entry of this handle for a remover
+		 * @param v The value of the entry
+		 * @return true if the entry was live and the value has left the queue, false if the entry must be dropped
+		 */
+		private boolean claim(long v) {
+			while(true) {
+				int s = state;
+				
+				//While a decrease is under way, both the old and the new entry are live
+				if(s < 0 || (v != value && v != pending))
+					return false;
+				
+				//Values only decrease, so the entry of a decrease under way is the one with the pending value
+				if(STATE.compareAndSet(this, s, (s & 3) == 2 && v == pending ? TAKEN_DECREASED : TAKEN))
+					return true;
+			}
+		}
+		
+		/**
+		 * Takes the value out of the priority queue, which makes every entry of the handle stale
+		 * @return true if successful, false if the value had left the queue already
+		 */
+		private boolean delete() {
+			while(true) {
+				int s = state;
+				if(s < 0)
+					return false;
+				if(STATE.compareAndSet(this, s, REMOVED))
+					return true;
+			}
+		}
+		
+		/**
+		 * Takes the right to decrease the value, waiting for a decrease by another thread to complete, and
+		 * announces the new value so that its entry is live once added
+		 * @param newValue The new value
+		 * @return The state before the decrease, or a negative number if newValue is not smaller or the value has
+		 * left the queue
+		 */
+		private int beginDecrease(long newValue) {
+			while(true) {
+				int s = state;
+				if(s < 0)
+					return s;
+				if((s & 3) != 0 || !STATE.compareAndSet(this, s, s + 1)) {
+					Thread.onSpinWait();
+					continue;
+				}
+				
+				//The value cannot change until the state is a multiple of 4 again
+				if(newValue >= value) {
+					STATE.compareAndSet(this, s + 1, s);
+					return -1;
+				}
+				pending = newValue;
+				return STATE.compareAndSet(this, s + 1, s + 2) ? s : -1;
+			}
+		}
+		
+		/**
+		 * Completes a decrease, which makes the entries added before it stale
+		 * @param s The state returned by beginDecrease()
+		 * @return true if the decrease took effect, either while the value is in the queue or because a remove took
+		 * the value with its new value, false if the value left the queue otherwise while the decrease was under way
+		 */
+		private boolean endDecrease(int s) {
+			return STATE.compareAndSet(this, s + 2, (s + 4) & Integer.MAX_VALUE) || state == TAKEN_DECREASED;
+		}
 	}
 	
 	/**
-	 * The Server thread that performs sequential operations on the priority queue
+	 * The Server that performs sequential operations on the priority queue, on its own thread or on the
+	 * thread of a combining client. Server k serves the slots of the elimination array whose index is k
+	 * modulo the number of Servers.
 	 * @author Ryan Kelsey and Lee Berman
 	 *
 	 */
-	private class Server extends Thread {
+	private class Server implements Runnable {
 		protected volatile boolean run;
+		protected volatile boolean parked; //Whether the Server is about to block or blocked
+		private final Thread thread; //The thread of the Server, or null if combining clients make its passes
+		private final int index; //The first slot served by this Server
+		private int[] requests = new int[ELIM_CAPACITY]; //The slots of the remove requests claimed in the current pass
+		private int[] drains = new int[ELIM_CAPACITY]; //The slots of the drain requests claimed in the current pass
+		private int[] drained = new int[ELIM_CAPACITY]; //The number of values handed to each drain request
+		private int[] adds = new int[ELIM_CAPACITY]; //The slots of the values claimed in the current pass, sorted by value
+		private long[] addValues = new long[ELIM_CAPACITY];
+		private Object[] addPayloads = new Object[ELIM_CAPACITY];
+		private long[] values = new long[ELIM_CAPACITY];
+		private long[] drainBuffer = new long[0]; //Receives the values of drain requests that asked for an int[]
+		private long[] liveValues = new long[0]; //Receives the values removed from the skiplist before the dropped entries are left out
+		private Object[] livePayloads = new Object[0];
+		private Object[] payloads = new Object[ELIM_CAPACITY];
+		private int windowAdds, windowRemoves; //The values this Server added and removed since the chop policy last looked
 		
 		/**
 		 * Creates the Server and tells it to run
+		 * @param index The index of the Server
+		 * @param dedicated true to give the Server a thread of its own, which still has to be started
 		 */
-		public Server() {
+		public Server(int index, boolean dedicated) {
+			this.index = index;
+			thread = dedicated ? new Thread(this) : null;
 			run = true;
 		}
 		
 		/* (non-Javadoc)
-		 * @see java.lang.Thread#run()
+		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
-			int[] stampHolder = new int[1];
+			int round = 0;
 			while(run) {
-				for(int i = 0; i < ELIM_SIZE; i++) {
-					Integer value = elim[i].get(stampHolder);
-					int stamp = stampHolder[0];
-					
-					//If a remove request is found, attempt to fill it with the smallest value from the skiplist
-					if(value == REMREQ) {
-						if(elim[i].compareAndSet(value, INPROG, stamp, 0)) {
-							int min = skiplist.removeSeq();
-							elim[i] = new AtomicStampedReference<Integer>(min, 0);
-						}
-					}
-					
-					//If a value is found, attempt to add it to the skiplist
-					if(isValue(value) && stamp > 0) {
-						if(elim[i].compareAndSet(value, INPROG, stamp, 0)) {
-							skiplist.addSeq(value);
-							elim[i] = new AtomicStampedReference<Integer>(TAKEN, 0);
+				if(serve()) {
+					round = 0;
+					continue;
+				}
+				
+				//Announces that it is about to block and checks for requests once more, so that a request
+				//posted in the meantime either is served here or unparks the Server
+				if(waitStrategy.idle(round++)) {
+					parked = true;
+					if(!serve() && run)
+						LockSupport.park(this);
+					parked = false;
+				}
+			}
+		}
+		
+		/**
+		 * Performs one pass over the elimination array in the manner of flat combining: every pending
+		 * request is claimed first, then the values are merged into the skiplist in a single sweep and
+		 * the remove requests are answered from a single run over its head
+		 * @return true if any request was served
+		 */
+		private boolean serve() {
+			int numRequests = 0, numDrains = 0, numAdds = 0;
+			int width = elim.scanWidth();
+			for(int i = index; i < width; i += servers.length) {
+				long slot = elim.get(i);
+				int state = EliminationArray.state(slot);
+				
+				//If a remove request is found, claim it so that it is filled after the pass. A WAITREQ is
+				//left posted while the skiplist is empty.
+				if(state == REMREQ || (state == WAITREQ && skiplist.getMinValue() != Long.MAX_VALUE)) {
+					if(elim.compareAndSet(i, slot, INPROG, 0))
+						requests[numRequests++] = i;
+				}
+				
+				//If a drain request is found, claim it so that it is filled once the values are added
+				if(state == DRAINREQ) {
+					if(elim.compareAndSet(i, slot, INPROG, 0))
+						drains[numDrains++] = i;
+				}
+				
+				//If a value is found, claim it and insert it in order among the values claimed so far
+				if(state == VALUE && EliminationArray.stamp(slot) > 0) {
+					if(elim.compareAndSet(i, slot, INPROG, 0)) {
+						long value = elim.getValue(i);
+						int j = numAdds++;
+						for(; j > 0 && addValues[j - 1] > value; j--) {
+							adds[j] = adds[j - 1];
+							addValues[j] = addValues[j - 1];
+							addPayloads[j] = addPayloads[j - 1];
 						}
+						adds[j] = i;
+						addValues[j] = value;
+						addPayloads[j] = elim.getPayload(i);
 					}
 				}
 			}
+			
+			if(numRequests + numDrains + numAdds == 0)
+				return false;
+			
+			//Works on the sequential part only while holding the head lock, and publishes the answers after releasing it
+			int n = 0;
+			headLock.lock();
+			try {
+				//Merges every claimed value into the skiplist with one sweep from its head
+				if(numAdds > 0 && payloadSkiplist != null)
+					payloadSkiplist.addSeqAll(addValues, addPayloads, numAdds);
+				else if(numAdds > 0)
+					skiplist.addSeqAll(addValues, numAdds);
+				
+				//Fills each requester's array, going through the buffer for an int[]
+				for(int j = 0; j < numDrains; j++) {
+					Object target = elim.getPayload(drains[j]);
+					int size = (int) elim.getValue(drains[j]);
+					long[] out = target instanceof long[] ? (long[]) target : drainBuffer(size);
+					drained[j] = removeLive(out, null, size);
+					if(out != target)
+						for(int k = 0; k < drained[j]; k++)
+							((int[]) target)[k] = (int) out[k];
+					windowRemoves += drained[j];
+				}
+				
+				//Fills every claimed remove request from a single run over the head of the skiplist
+				if(numRequests > 0)
+					n = removeLive(values, payloads, numRequests);
+				
+				//When adds far outnumber removes, the sequential part holds more than the removes will use up soon,
+				//and every add below its end queues on the Servers. Chopping the head sends those adds back to the
+				//parallel part, and the next moveHead() takes fewer elements.
+				windowAdds += numAdds;
+				windowRemoves += n;
+				if(windowAdds + windowRemoves >= CHOP_WINDOW) {
+					if(windowAdds > CHOP_PRESSURE * windowRemoves)
+						skiplist.chopHead();
+					windowAdds = 0;
+					windowRemoves = 0;
+				}
+			} finally {
+				headLock.unlock();
+			}
+			
+			for(int j = 0; j < numAdds; j++) {
+				elim.set(adds[j], TAKEN, 0);
+				wake(adds[j]);
+				addPayloads[j] = null;
+			}
+			
+			//WAITREQs served by other Servers may have been waiting for these values
+			if(numAdds > 0 && servers.length > 1)
+				signalWaitingRequests();
+			
+			for(int j = 0; j < numDrains; j++) {
+				elim.setValue(drains[j], drained[j]);
+				elim.set(drains[j], VALUE, 0);
+				wake(drains[j]);
+			}
+			
+			for(int j = 0; j < numRequests; j++) {
+				elim.setPayload(requests[j], j < n ? payloads[j] : null);
+				if(j < n)
+					elim.setValue(requests[j], values[j]);
+				elim.set(requests[j], j < n ? VALUE : NONE, 0);
+				wake(requests[j]);
+				payloads[j] = null;
+			}
+			return true;
+		}
+		
+		/**
+		 * Removes up to max values from the sequential part of the skiplist. The entries of handles that were
+		 * decreased or removed are dropped along the way, with more values removed in their place, and the live
+		 * entries of handles are claimed for the remover.
+		 * @param out An array to store the removed values in
+		 * @param outPayloads An array to store the payloads of the removed values in, or null if they are not needed
+		 * @param max The maximum number of values to remove
+		 * @return The number of values removed, which is less than max only if the skiplist ran empty
+		 */
+		private int removeLive(long[] out, Object[] outPayloads, int max) {
+			if(liveValues.length < max) {
+				liveValues = new long[max];
+				livePayloads = new Object[max];
+			}
+			int n = 0;
+			while(n < max) {
+				int wanted = max - n;
+				int m = payloadSkiplist != null ? payloadSkiplist.removeSeq(liveValues, livePayloads, wanted) : skiplist.removeSeq(liveValues, wanted);
+				for(int j = 0; j < m; j++) {
+					Object payload = livePayloads[j];
+					livePayloads[j] = null;
+					if(!claim(liveValues[j], payload))
+						continue;
+					if(outPayloads != null)
+						outPayloads[n] = payload;
+					out[n++] = liveValues[j];
+				}
+				if(m < wanted)
+					break;
+			}
+			return n;
+		}
+		
+		/**
+		 * Fetches the buffer for a drain request that asked for an int[], growing it if needed
+		 * @param size The number of values requested
+		 * @return A buffer with room for at least size values
+		 */
+		private long[] drainBuffer(int size) {
+			if(drainBuffer.length < size)
+				drainBuffer = new long[size];
+			return drainBuffer;
 		}
 	}
 }
\ No newline at end of file
@@ -1,45 +1,49 @@
+import benchmarks.PriorityQueueBenchmark;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
 /**
- * A performance tester for priority queues
+ * A performance tester for priority queues. It runs the JMH benchmarks in PriorityQueueBenchmark at every
+ * thread count with the GC profiler, and writes the results of each thread count to results-Nt.csv. For
+ * other JMH options, run the benchmarks directly with java -jar target/benchmarks.jar.
  * @author Ryan Kelsey and Lee Berman
  *
  */
 public class PerformanceTester {
-    private static final int NUM_OPERATIONS = 500_000;
-    private static final int NUM_TESTS = 1;
-    
     /**
-     * The entry point of the program. It executes tests with different thread counts and operation mixes
-     * @param args The command line arguments
-     * @throws InterruptedException
+     * The entry point of the program
+     * @param args The command line arguments: optionally the names of the queues to test, and trace=FILE to
+     * replay a trace instead of the generated workloads
+     * @throws RunnerException If a benchmark fails
      */
-    public static void main(String[] args) throws InterruptedException {
-	double[] opMixes = {0.25, 0.4, 0.5, 0.6, 0.75};
-	for(int threads = 1; threads <= 8; threads *= 2)
-		for(double opMix : opMixes)
-			testSuite(threads, opMix);
-    }
-    
-    /**
-     * Runs the tests on ConcurrentPriorityQueue, SequentialPriorityQueue, and PaperPriorityQueue
-     * @param numThreads The number of threads to test with
-     * @param opMix The operation mix
-     * @throws InterruptedException
-     */
-    public static void testSuite(int numThreads, double opMix) throws InterruptedException {
-        System.out.println(numThreads + "," + opMix);
-        System.out.println("Sequential: ");
-        for(int i = 0; i < NUM_TESTS; i++) {
-            System.out.print((i == 0 ? "" : ",") + PriorityQueueTester.runTest(numThreads, opMix, NUM_OPERATIONS, new SequentialPriorityQueue()));
-        }
-        System.out.println("\nConcurrent: ");
-        for(int i = 0; i < NUM_TESTS; i++) {
-            System.out.print((i == 0 ? "" : ",") + PriorityQueueTester.runTest(numThreads, opMix, NUM_OPERATIONS, new ConcurrentPriorityQueue()));
+    public static void main(String[] args) throws RunnerException {
+        List<String> queues = new ArrayList<String>();
+        String trace = null;
+        for(String arg : args) {
+            if(arg.startsWith("trace="))
+                trace = arg.substring("trace=".length());
+            else
+                queues.add(arg);
         }
-        
-        System.out.println("\nPaper-23h: ");
-        for(int i = 0; i < NUM_TESTS; i++) {
-            System.out.print((i == 0 ? "" : ",") + PriorityQueueTester.runTest(numThreads, opMix, NUM_OPERATIONS, new PaperPriorityQueue(23)));
+
+        for(int threads = 1; threads <= 8; threads *= 2) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(PriorityQueueBenchmark.class.getName())
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.CSV)
+                .result("results-" + threads + "t.csv");
+            if(!queues.isEmpty())
+                options.param("queue", queues.toArray(new String[queues.size()]));
+            if(trace != null)
+                options.param("workload", "trace@" + trace);
+            new Runner(options.build()).run();
         }
-        System.out.println();
     }
 }
\ No newline at end of file
@@ -1,4 +1,6 @@
-import java.util.concurrent.ThreadLocalRandom;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A tester for a priority queue given some test parameters
@@ -6,20 +8,22 @@ import java.util.concurrent.ThreadLocalRandom;
  *
  */
 public class PriorityQueueTester implements Runnable {
-    private static final int MIN_GENERATE = 0;
-    private static final int MAX_GENERATE = 10000 + 1;
     private static final boolean DEBUG = false;
+    private static final com.sun.management.ThreadMXBean THREADS = threadMXBean();
     
     private int threadId;
-    private double operationMix; //0-1, higher = more additions
+    private int numThreads;
     private int numOperationsPerThread;
     private IPriorityQueue queueObject;
+    private IWorkload workload;
+    private long allocatedBytes; //The bytes allocated by this tester's thread while it ran, or -1 if unknown
 
-    private PriorityQueueTester(int threadId, double operationMix, int numOperationsPerThread, IPriorityQueue queueObject) {
+    private PriorityQueueTester(int threadId, int numThreads, int numOperationsPerThread, IPriorityQueue queueObject, IWorkload workload) {
         this.threadId = threadId;
-        this.operationMix = operationMix;
+        this.numThreads = numThreads;
         this.numOperationsPerThread = numOperationsPerThread;
         this.queueObject = queueObject;
+        this.workload = workload;
     }
 
     /**
@@ -31,14 +35,42 @@ public class PriorityQueueTester implements Runnable {
      * @return The time taken for the test, in milliseconds
      */
     public static long runTest(int numThreads, double operationMix, int numOperations, IPriorityQueue queueObject) {
+        return runTest(numThreads, numOperations, queueObject, Workload.uniform(operationMix));
+    }
+
+    /**
+     * Runs a workload on the given priority queue
+     * @param numThreads The number of threads to use
+     * @param numOperations The number of operations
+     * @param queueObject The queue to test with
+     * @param workload The workload to run
+     * @return The time taken for the test, in milliseconds
+     */
+    public static long runTest(int numThreads, int numOperations, IPriorityQueue queueObject, IWorkload workload) {
+        return measure(numThreads, numOperations, queueObject, workload).a / 1_000_000;
+    }
+
+    /**
+     * Runs a test on the given priority queue and measures its time and allocations
+     * @param numThreads The number of threads to use
+     * @param numOperations The number of operations
+     * @param queueObject The queue to test with
+     * @param workload The workload to run
+     * @return The time taken for the test in nanoseconds, and the bytes allocated during the test by the
+     * testing threads and by the threads that ran throughout the test, such as a Server, or -1 if unknown
+     */
+    public static Tuple<Long, Long> measure(int numThreads, int numOperations, IPriorityQueue queueObject, IWorkload workload) {
         int numOperationsPerThread = numOperations / numThreads;
         Thread[] threads = new Thread[numThreads];
+        PriorityQueueTester[] testers = new PriorityQueueTester[numThreads];
 
         for(int i = 0; i < numThreads; i++) {
-            threads[i] = new Thread(new PriorityQueueTester(i, operationMix, numOperationsPerThread, queueObject));
+            testers[i] = new PriorityQueueTester(i, numThreads, numOperationsPerThread, queueObject, workload);
+            threads[i] = new Thread(testers[i]);
         }
 
-        long start = System.currentTimeMillis();
+        Map<Long, Long> allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
 
         for(int i = 0; i < numThreads; i++) {
             threads[i].start();
@@ -50,33 +82,85 @@ public class PriorityQueueTester implements Runnable {
             } catch (InterruptedException e) {}
         }
 
-        long end = System.currentTimeMillis();
+        long end = System.nanoTime();
+        Map<Long, Long> allocatedAfter = allocatedBytes();
+
+        IPriorityQueue queue = queueObject instanceof InstrumentedPriorityQueue ? ((InstrumentedPriorityQueue)queueObject).getQueue() : queueObject;
+        if(queue instanceof PaperPriorityQueue<?>)
+        	((PaperPriorityQueue<?>)queue).stop();
+        
+        //The testing threads are gone by now, so they report their own allocations
+        long allocated = allocatedBefore == null ? -1 : 0;
+        for(int i = 0; i < numThreads && allocated >= 0; i++)
+            allocated = testers[i].allocatedBytes < 0 ? -1 : allocated + testers[i].allocatedBytes;
+        if(allocated >= 0) {
+            for(Map.Entry<Long, Long> entry : allocatedAfter.entrySet()) {
+                Long before = allocatedBefore.get(entry.getKey());
+                if(before != null && before >= 0 && entry.getValue() >= before)
+                    allocated += entry.getValue() - before;
+            }
+        }
+        return new Tuple<Long, Long>(end - start, allocated);
+    }
+
+    /**
+     * Fetches the JVM's thread bean if it can count the bytes allocated by each thread
+     * @return The bean, or null if allocations cannot be counted
+     */
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if(bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+                if(threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    return threads;
+                }
+            }
+        } catch(UnsupportedOperationException | SecurityException e) {}
+        return null;
+    }
 
-        if(queueObject instanceof PaperPriorityQueue)
-        	((PaperPriorityQueue)queueObject).stop();
-        return end - start;
+    /**
+     * Takes a snapshot of the bytes allocated so far by every live thread
+     * @return The allocated bytes by thread ID, or null if allocations cannot be counted
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        if(THREADS == null)
+            return null;
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<Long, Long>();
+        for(int i = 0; i < ids.length; i++)
+            allocated.put(ids[i], bytes[i]);
+        return allocated;
     }
 
     /* (non-Javadoc)
      * @see java.lang.Runnable#run()
      */
     public void run() {
+        long allocatedStart = THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        IWorkload.Generator generator = workload.generator(threadId, numThreads, numOperationsPerThread);
         long addSum = 0;
         long remSum = 0;
         int numAdded = 0;
         for(int i = 0; i < numOperationsPerThread; i++) {
-            if(numAdded <= 0 || ThreadLocalRandom.current().nextDouble(1) < operationMix) {
-                int v = ThreadLocalRandom.current().nextInt(MIN_GENERATE, MAX_GENERATE);
+            if(generator.nextIsAdd(i) || numAdded <= 0) {
+                int v = generator.nextKey(i);
                 queueObject.add(v, threadId);
                 addSum += v;
                 numAdded++;
             } else {
                 int v = queueObject.removeMin(threadId);
+                generator.removed(v);
                 remSum += v == Integer.MAX_VALUE ? 0 : v;
                 numAdded--;
             }
         }
         
+        allocatedBytes = allocatedStart < 0 ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedStart;
+        
         if(DEBUG)
         	System.out.println("Thread " + threadId + " ended with addSum = " + addSum + ", remSum = " + remSum + ", diff = " + (addSum - remSum));
     }
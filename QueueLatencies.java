@@ -0,0 +1,85 @@
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The latency histograms of the operations on a priority queue, one for each series of operations
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class QueueLatencies {
+	/**
+	 * The series of operations that are recorded separately
+	 */
+	public enum Series {
+		/** Every add() */
+		ADD,
+		/** Every blocking removeMin(), and every tryRemoveMin() and timed removeMin() that returned a value */
+		REMOVE,
+		/** Every addAll() */
+		ADD_ALL,
+		/** Every drainMin() */
+		DRAIN,
+		/** The adds of a PaperPriorityQueue that were handed directly to a remover */
+		ADD_ELIMINATED,
+		/** The adds of a PaperPriorityQueue that went into the skiplist */
+		ADD_SKIPLIST,
+		/** The removes of a PaperPriorityQueue that were handed a value directly by an adder */
+		REMOVE_ELIMINATED,
+		/** The removes of a PaperPriorityQueue that were served from the skiplist */
+		REMOVE_SKIPLIST
+	}
+
+	private final LatencyHistogram[] histograms;
+
+	/**
+	 * Creates empty histograms for every series
+	 */
+	public QueueLatencies() {
+		histograms = new LatencyHistogram[Series.values().length];
+		for(int i = 0; i < histograms.length; i++)
+			histograms[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * Records the latency of an operation from the calling thread
+	 * @param series The series of the operation
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void record(Series series, long nanos) {
+		histograms[series.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Takes a snapshot of one series
+	 * @param series The series
+	 * @return The snapshot
+	 */
+	public LatencyHistogram.Snapshot snapshot(Series series) {
+		return histograms[series.ordinal()].snapshot();
+	}
+
+	/**
+	 * Takes a snapshot of every series that has recorded an operation
+	 * @return The snapshots by series
+	 */
+	public Map<Series, LatencyHistogram.Snapshot> snapshot() {
+		Map<Series, LatencyHistogram.Snapshot> snapshots = new EnumMap<Series, LatencyHistogram.Snapshot>(Series.class);
+		for(Series series : Series.values()) {
+			LatencyHistogram.Snapshot snapshot = snapshot(series);
+			if(snapshot.count() > 0)
+				snapshots.put(series, snapshot);
+		}
+		return snapshots;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(Map.Entry<Series, LatencyHistogram.Snapshot> entry : snapshot().entrySet())
+			sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		return sb.toString();
+	}
+}
\ No newline at end of file
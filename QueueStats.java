@@ -0,0 +1,131 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The counters of a PaperPriorityQueue and its skiplist. The counters are striped LongAdders, so that
+ * threads counting at the same time do not contend on them.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class QueueStats implements QueueStatsMBean {
+	public final LongAdder eliminationHits = new LongAdder();
+	public final LongAdder eliminationMisses = new LongAdder();
+	public final LongAdder removeWaitSpins = new LongAdder();
+	public final LongAdder addParRetries = new LongAdder();
+	public final LongAdder cleanFindRestarts = new LongAdder();
+	public final LongAdder moveHeads = new LongAdder();
+	public final LongAdder movedElements = new LongAdder();
+	public final LongAdder chopHeads = new LongAdder();
+	public final LongAdder choppedElements = new LongAdder();
+	private final IntSupplier seqElementsToAdd;
+
+	/**
+	 * Creates the counters
+	 * @param seqElementsToAdd Reads the number of elements the next moveHead() aims to move
+	 */
+	public QueueStats(IntSupplier seqElementsToAdd) {
+		this.seqElementsToAdd = seqElementsToAdd;
+	}
+
+	/**
+	 * Registers the counters with the platform MBean server
+	 * @param name The name that tells this queue apart from others
+	 * @return The name the counters were registered under
+	 * @throws JMException If the counters cannot be registered, such as when the name is already taken
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("AdaptivePriorityQueue:type=QueueStats,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getEliminationHits()
+	 */
+	public long getEliminationHits() {
+		return eliminationHits.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getEliminationMisses()
+	 */
+	public long getEliminationMisses() {
+		return eliminationMisses.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getRemoveWaitSpins()
+	 */
+	public long getRemoveWaitSpins() {
+		return removeWaitSpins.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getAddParRetries()
+	 */
+	public long getAddParRetries() {
+		return addParRetries.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getCleanFindRestarts()
+	 */
+	public long getCleanFindRestarts() {
+		return cleanFindRestarts.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getMoveHeads()
+	 */
+	public long getMoveHeads() {
+		return moveHeads.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getMovedElements()
+	 */
+	public long getMovedElements() {
+		return movedElements.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getChopHeads()
+	 */
+	public long getChopHeads() {
+		return chopHeads.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getChoppedElements()
+	 */
+	public long getChoppedElements() {
+		return choppedElements.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see QueueStatsMBean#getSeqElementsToAdd()
+	 */
+	public int getSeqElementsToAdd() {
+		return seqElementsToAdd.getAsInt();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "eliminationHits=" + getEliminationHits()
+			+ " eliminationMisses=" + getEliminationMisses()
+			+ " removeWaitSpins=" + getRemoveWaitSpins()
+			+ " addParRetries=" + getAddParRetries()
+			+ " cleanFindRestarts=" + getCleanFindRestarts()
+			+ " moveHeads=" + getMoveHeads()
+			+ " movedElements=" + getMovedElements()
+			+ " chopHeads=" + getChopHeads()
+			+ " choppedElements=" + getChoppedElements()
+			+ " seqElementsToAdd=" + getSeqElementsToAdd();
+	}
+}
\ No newline at end of file
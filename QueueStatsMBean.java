@@ -0,0 +1,66 @@
+/**
+ * The management interface through which the counters of a PaperPriorityQueue are read over JMX
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public interface QueueStatsMBean {
+	/**
+	 * Fetches the number of adds that were handed directly to a remover
+	 * @return The number of eliminated adds
+	 */
+	public long getEliminationHits();
+
+	/**
+	 * Fetches the number of adds that tried to eliminate and gave up
+	 * @return The number of failed elimination attempts
+	 */
+	public long getEliminationMisses();
+
+	/**
+	 * Fetches the number of rounds spent waiting for remove requests to be answered
+	 * @return The number of wait rounds
+	 */
+	public long getRemoveWaitSpins();
+
+	/**
+	 * Fetches the number of failed CASes while linking nodes into the parallel part
+	 * @return The number of retries
+	 */
+	public long getAddParRetries();
+
+	/**
+	 * Fetches the number of clean finds restarted because the head of the skiplist moved
+	 * @return The number of restarts
+	 */
+	public long getCleanFindRestarts();
+
+	/**
+	 * Fetches the number of times moveHead() moved elements to the sequential part
+	 * @return The number of moves
+	 */
+	public long getMoveHeads();
+
+	/**
+	 * Fetches the total number of elements moved by moveHead()
+	 * @return The number of elements
+	 */
+	public long getMovedElements();
+
+	/**
+	 * Fetches the number of times chopHead() moved the sequential part back to the parallel part
+	 * @return The number of chops
+	 */
+	public long getChopHeads();
+
+	/**
+	 * Fetches the total number of elements moved by chopHead()
+	 * @return The number of elements
+	 */
+	public long getChoppedElements();
+
+	/**
+	 * Fetches the number of elements the next moveHead() aims to move, as last decided by determineDynamically()
+	 * @return The number of elements
+	 */
+	public int getSeqElementsToAdd();
+}
\ No newline at end of file
@@ -1,28 +1,102 @@
-import java.util.PriorityQueue;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A priority queue that uses Java's PriorityQueue as the backing data structure inside synchronized blocks.
+ * A priority queue that uses an IntHeap as the backing data structure inside synchronized blocks.
  * @author Ryan Kelsey and Lee Berman
  *
+ * @param <T> The type of the payloads
  */
-public class SequentialPriorityQueue implements IPriorityQueue {
-    private PriorityQueue<Integer> pq;
+public class SequentialPriorityQueue<T> implements IPayloadPriorityQueue<T> {
+    private IntHeap pq;
+    private Object[] payloadHolder = new Object[1]; //Receives the payload of a removed value. Only used while holding the lock on pq.
+    private WaitStrategy waitStrategy;
+    private int waiting; //The number of threads blocked in pq.wait()
     
     public SequentialPriorityQueue() {
-        pq = new PriorityQueue<Integer>();
+        this(WaitStrategy.BUSY_SPIN);
+    }
+    
+    /**
+     * Creates the priority queue
+     * @param waitStrategy How removeMin() waits while the queue is empty
+     */
+    public SequentialPriorityQueue(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+        pq = new IntHeap();
     }
     
     /* (non-Javadoc)
      * @see IPriorityQueue#removeMin(int)
      */
     public int removeMin(int threadId) {
+        int round = 0;
+        boolean block = false;
+        while(true) {
+            synchronized(pq) {
+                if(!pq.isEmpty())
+                    return pq.poll();
+                
+                //An interrupted thread gives up as on an empty queue
+                if(block && !await())
+                    return Integer.MAX_VALUE;
+            }
+            block = waitStrategy.idle(round++);
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMin(int)
+     */
+    public OptionalInt tryRemoveMin(int threadId) {
+        synchronized(pq) {
+            return pq.isEmpty() ? OptionalInt.empty() : OptionalInt.of(pq.poll());
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int round = 0;
+        boolean block = false;
+        while(true) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            synchronized(pq) {
+                if(!pq.isEmpty())
+                    return OptionalInt.of(pq.poll());
+                
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0)
+                    return OptionalInt.empty();
+                if(block) {
+                    waiting++;
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(pq, remaining);
+                    } finally {
+                        waiting--;
+                    }
+                }
+            }
+            block = waitStrategy.idle(round++);
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPayloadPriorityQueue#removeMinEntry(int)
+     */
+    public Tuple<Integer, T> removeMinEntry(int threadId) {
+        int round = 0;
+        boolean block = false;
         while(true) {
             synchronized(pq) {
-                Integer res = pq.poll();
+                Tuple<Integer, T> res = pollEntry();
                 if(res != null) {
                     return res;
                 }
+                if(block && !await())
+                    return new Tuple<Integer, T>(Integer.MAX_VALUE, null);
             }
+            block = waitStrategy.idle(round++);
         }
     }
     /* (non-Javadoc)
@@ -30,7 +104,76 @@ public class SequentialPriorityQueue implements IPriorityQueue {
      */
     public boolean add(int inValue, int threadId) {
         synchronized(pq) {
-            return pq.add(inValue);
+            if(waiting > 0)
+                pq.notify();
+            pq.add(inValue);
+            return true;
         }
     }
+    /* (non-Javadoc)
+     * @see IPayloadPriorityQueue#add(int, java.lang.Object, int)
+     */
+    public boolean add(int inValue, T payload, int threadId) {
+        synchronized(pq) {
+            if(waiting > 0)
+                pq.notify();
+            pq.add(inValue, payload);
+            return true;
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addAll(int[], int)
+     */
+    public boolean addAll(int[] values, int threadId) {
+        synchronized(pq) {
+            if(waiting > 0)
+                pq.notifyAll();
+            for(int v : values)
+                pq.add(v);
+            return true;
+        }
+    }
+    /* (non-Javadoc)
+     * @see IPriorityQueue#drainMin(int[], int, int)
+     */
+    public int drainMin(int[] out, int max, int threadId) {
+        synchronized(pq) {
+            int n = 0, limit = Math.min(max, out.length);
+            while(n < limit && !pq.isEmpty())
+                out[n++] = pq.poll();
+            return n;
+        }
+    }
+    
+    /**
+     * Blocks until a value is added. Must be called while holding the lock on pq.
+     * @return false if the thread was interrupted, which leaves the interrupt flag set
+     */
+    private boolean await() {
+        waiting++;
+        try {
+            pq.wait();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting--;
+        }
+    }
+    
+    /**
+     * Removes the minimum value and its payload. Must be called while holding the lock on pq.
+     * @return The removed value and its payload, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    private Tuple<Integer, T> pollEntry() {
+        if(pq.isEmpty())
+            return null;
+        int value = pq.poll(payloadHolder);
+        T payload = (T) payloadHolder[0];
+        payloadHolder[0] = null;
+        return new Tuple<Integer, T>(value, payload);
+    }
 }
\ No newline at end of file
@@ -1,43 +1,79 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * A Skiplist that allows for sequential adds and removes on the first end and parallel adds on the second end
+ * A Skiplist that allows for sequential adds and removes on the first end and parallel adds on the second end.
+ * In stable mode, every bucket keeps its duplicates in the order they were added, and removes serve the oldest first.
  * @author Ryan Kelsey and Lee Berman
  *
  */
-public class Skiplist {
-	private AtomicInteger lockTimestamp, minValue, seqElementsToAdd, seqInsertions;
+public class Skiplist implements IPayloadSkiplist {
+	private AtomicInteger seqElementsToAdd, seqInsertions;
+	private AtomicLong minValue;
 	private BucketNode headSeq, currSeq, headPar, tail;
 	private AtomicReference<BucketNode> lastSeq;
-	private ReadWriteLock lock;
+	private StripedReadWriteLock lock;
+	private BucketNode[][] pool; //Recycled nodes, indexed by height. Only touched by the sequential side.
+	private int[] poolSize;
+	private int seqSize; //The number of elements in the sequential part. Only touched by the sequential side.
+	private boolean stable; //Whether duplicates are removed first in, first out
+	private QueueStats stats;
 	private final int MAX_HEIGHT;
 	
 	private static final int SEQUENTIAL_INSERTIONS_OVERLOAD = 1000;
 	private static final int SEQUENTIAL_INSERTIONS_UNDERLOAD = 100;
 	private static final int MIN_SEQUENTIAL_ELEMENTS_TO_ADD = 8;
 	private static final int MAX_SEQUENTIAL_ELEMENTS_TO_ADD = 65536;
+	private static final int POOL_CAPACITY = 256; //Maximum recycled nodes kept per height
+	private static final int SPRAY_CLEANUP_THRESHOLD = 64; //Emptied buckets a spray may pass over before they are unlinked
 	
 	/**
-	 * Constructs the Skiplist
+	 * Constructs the Skiplist without node recycling
 	 * @param h The height of the skiplist
 	 */
 	public Skiplist(int h) {
+		this(h, false);
+	}
+	
+	/**
+	 * Constructs the Skiplist without stable ordering of duplicates
+	 * @param h The height of the skiplist
+	 * @param recycleNodes true if nodes unlinked by removeSeq() should be reused by addSeq()
+	 */
+	public Skiplist(int h, boolean recycleNodes) {
+		this(h, recycleNodes, false);
+	}
+	
+	/**
+	 * Constructs the Skiplist
+	 * @param h The height of the skiplist
+	 * @param recycleNodes true if nodes unlinked by removeSeq() should be reused by addSeq()
+	 * @param stable true to remove duplicates in the order they were added. Every duplicate then takes a slot
+	 * in its bucket, whether it carries a payload or not.
+	 */
+	public Skiplist(int h, boolean recycleNodes, boolean stable) {
 		MAX_HEIGHT = h;
-		lock = new ReentrantReadWriteLock();
-		minValue = new AtomicInteger(Integer.MAX_VALUE);
-		lockTimestamp = new AtomicInteger(0);
+		this.stable = stable;
+		if(recycleNodes) {
+			pool = new BucketNode[h + 1][POOL_CAPACITY];
+			poolSize = new int[h + 1];
+		}
+		lock = new StripedReadWriteLock();
+		minValue = new AtomicLong(Long.MAX_VALUE);
 		seqElementsToAdd = new AtomicInteger(MIN_SEQUENTIAL_ELEMENTS_TO_ADD);
 		seqInsertions = new AtomicInteger(0);
-		headSeq = new BucketNode(Integer.MIN_VALUE, h);
-		headPar = new BucketNode(Integer.MAX_VALUE, h);
-		tail = new BucketNode(Integer.MAX_VALUE, h);
+		stats = new QueueStats(seqElementsToAdd::get);
+		headSeq = new BucketNode(Long.MIN_VALUE, h);
+		headPar = new BucketNode(Long.MAX_VALUE, h);
+		tail = new BucketNode(Long.MAX_VALUE, h);
 		for(int i = 0; i < h; i++) {
-			headSeq.next[i] = new AtomicReference<BucketNode>(tail);
-			headPar.next[i] = new AtomicReference<BucketNode>(tail);
+			headSeq.setNext(i, tail);
+			headPar.setNext(i, tail);
 		}
 		lastSeq = new AtomicReference<BucketNode>(headPar);
 	}
@@ -46,10 +82,22 @@ public class Skiplist {
 	 * Removes the smallest value from the sequential part of the skiplist
 	 * @return The removed value
 	 */
-	public int removeSeq() {
+	public long removeSeq() {
+		return removeSeq(null);
+	}
+	
+	/**
+	 * Removes the smallest value and its payload from the sequential part of the skiplist
+	 * @param payloadHolder An array whose first element receives the payload, or null if the payload is not needed
+	 * @return The removed value
+	 */
+	public long removeSeq(Object[] payloadHolder) {
+		if(payloadHolder != null)
+			payloadHolder[0] = null;
+		
 		//The skiplist is empty
-		if(minValue.get() == Integer.MAX_VALUE)
-			return Integer.MAX_VALUE;
+		if(minValue.get() == Long.MAX_VALUE)
+			return Long.MAX_VALUE;
 		
 		//The sequential part is empty; add elements from the parallel part
 		if(currSeq == null)
@@ -57,19 +105,25 @@ public class Skiplist {
 		
 		//The parallel part was empty as well
 		if(currSeq == null)
-			return Integer.MAX_VALUE;
+			return Long.MAX_VALUE;
+		
+		long key = currSeq.key;
+		seqSize--;
 		
-		int key = currSeq.key;
-		currSeq.counter.decrementAndGet();
+		Object payload = takePayload(currSeq);
+		if(payloadHolder != null)
+			payloadHolder[0] = payload;
 		
 		//This was the last instance of the removed value. Physically remove the node.
-		if(currSeq.counter.get() == 0) {
+		if(currSeq.decrementCounter() == 0) {
 			if(currSeq != lastSeq.get()) {
-				for(int i = 0; i < currSeq.topLevel; i++) {
-					headSeq.next[i] = new AtomicReference<BucketNode>(currSeq.next[i].get());
+				BucketNode removed = currSeq;
+				for(int i = 0; i < removed.topLevel; i++) {
+					headSeq.setNext(i, removed.getNext(i));
 				}
-				currSeq = currSeq.next[0].get();
+				currSeq = removed.getNext(0);
 				minValue.set(currSeq.key);
+				recycle(removed);
 				return key;
 			}
 			moveHead(); //If we just removed the last sequential element, add elements from the parallel part
@@ -77,28 +131,149 @@ public class Skiplist {
 		return key;
 	}
 	
+	/**
+	 * Removes up to max of the smallest values from the sequential part of the skiplist in one run
+	 * @param values An array to store the removed values in
+	 * @param max The maximum number of values to remove
+	 * @return The number of values removed, which is less than max only if the skiplist ran empty
+	 */
+	public int removeSeq(long[] values, int max) {
+		return removeSeq(values, null, max);
+	}
+	
+	/**
+	 * Removes up to max of the smallest values from the sequential part of the skiplist in one run,
+	 * unlinking the emptied nodes from the head once at the end rather than after every removal
+	 * @param values An array to store the removed values in
+	 * @param payloads An array to store the payloads of the removed values in, or null if they are not needed
+	 * @param max The maximum number of values to remove
+	 * @return The number of values removed, which is less than max only if the skiplist ran empty
+	 */
+	public int removeSeq(long[] values, Object[] payloads, int max) {
+		int n = 0;
+		boolean unlink = false; //Whether headSeq still points to emptied nodes before currSeq
+		while(n < max && minValue.get() != Long.MAX_VALUE) {
+			//The sequential part is empty; add elements from the parallel part
+			if(currSeq == null) {
+				moveHead();
+				if(currSeq == null)
+					break;
+			}
+			
+			//Takes as many duplicates of the current minimum as are still needed
+			BucketNode node = currSeq;
+			int take = Math.min(node.getCounter(), max - n);
+			for(int i = 0; i < take; i++) {
+				Object payload = takePayload(node);
+				if(payloads != null)
+					payloads[n] = payload;
+				values[n++] = node.key;
+			}
+			
+			seqSize -= take;
+			if(node.addToCounter(-take) > 0)
+				break;
+			
+			if(node == lastSeq.get()) {
+				unlink = false; //moveHead() replaces every link of headSeq
+				moveHead();
+			} else {
+				currSeq = node.getNext(0);
+				minValue.set(currSeq.key);
+				unlink = true;
+			}
+		}
+		
+		if(unlink)
+			unlinkRemoved();
+		return n;
+	}
+	
+	/**
+	 * Takes the payload of a duplicate removed from a bucket in the sequential part. In stable mode that is the
+	 * payload of the oldest duplicate; otherwise duplicates that carry a payload are served before those that do not.
+	 * @param node The bucket
+	 * @return The payload, or null if the duplicate carries none
+	 */
+	private Object takePayload(BucketNode node) {
+		if(!node.hasPayloads())
+			return null;
+		return stable ? node.pollPayload() : node.popPayload();
+	}
+	
+	/**
+	 * Stores the payload of a duplicate added to a bucket. In stable mode every duplicate is stored, with or without
+	 * a payload, so that the payloads stay in line with the order of the duplicates.
+	 * @param node The bucket
+	 * @param payload The payload, or null if the duplicate carries none
+	 */
+	private void storePayload(BucketNode node, Object payload) {
+		if(payload != null || stable)
+			node.pushPayload(payload);
+	}
+	
+	/**
+	 * Points headSeq past the emptied nodes that precede currSeq and recycles them
+	 */
+	private void unlinkRemoved() {
+		//Relinks the upper levels past the emptied nodes, then level 0, recycling the nodes on the way
+		for(int i = MAX_HEIGHT - 1; i > 0; i--) {
+			BucketNode next = headSeq.getNext(i);
+			while(next != tail && next.key < currSeq.key)
+				next = next.getNext(i);
+			headSeq.setNext(i, next);
+		}
+		
+		BucketNode next = headSeq.getNext(0);
+		headSeq.setNext(0, currSeq);
+		while(next != currSeq) {
+			BucketNode removed = next;
+			next = removed.getNext(0);
+			recycle(removed);
+		}
+	}
+	
 	/**
 	 * Adds an element to the sequential part of the skiplist
 	 * @param v The value to be added
 	 */
-	public void addSeq(int v) {
+	public void addSeq(long v) {
+		addSeq(v, null);
+	}
+	
+	/**
+	 * Adds an element with a payload to the sequential part of the skiplist
+	 * @param v The value to be added
+	 * @param payload The payload of the element, or null if it has none
+	 */
+	public void addSeq(long v, Object payload) {
+		//Once the sequential part has an end, addPar() accepts every value beyond it, so such a value goes to the
+		//parallel part as well. After chopHead() the end is headSeq, and only the smallest value stays here.
+		BucketNode last = lastSeq.get();
+		if(last != headPar && v > last.key) {
+			insertPar(v, payload, false);
+			return;
+		}
 		seqInsertions.incrementAndGet();
+		seqSize++;
 		
 		BucketNode[] preds = new BucketNode[MAX_HEIGHT], succs = new BucketNode[MAX_HEIGHT];
 		BucketNode node = find(headSeq, v, preds, succs); //Fetches the point where the node should be inserted
 		
 		//The node already exists
 		if(node != null) {
-			node.counter.incrementAndGet();
+			storePayload(node, payload);
+			node.incrementCounter();
 			return;
 		}
 		
-		node = new BucketNode(v, generateHeight());
+		node = obtainNode(v, generateHeight());
+		storePayload(node, payload);
 		
 		//Physically inserts the node
 		for(int i = 0; i < node.topLevel; i++) {
-			preds[i].next[i] = new AtomicReference<BucketNode>(node);
-			node.next[i] = new AtomicReference<BucketNode>(succs[i]);
+			node.setNext(i, succs[i]);
+			preds[i].setNext(i, node);
 		}
 		
 		//Updates the minimum value
@@ -107,10 +282,76 @@ public class Skiplist {
 			currSeq = node;
 		}
 		
-		//Updates the physical end of the list, if the current node is larger than the current last node
-		if(lastSeq.get() == headPar || lastSeq.get().key < v) {
+		//The sequential part had no end yet
+		if(last == headPar || last == headSeq)
 			lastSeq.set(node);
+	}
+	
+	/**
+	 * Adds a batch of elements to the sequential part of the skiplist in a single sweep from its head
+	 * @param values The values to be added, sorted in ascending order
+	 * @param n The number of values to be added
+	 */
+	public void addSeqAll(long[] values, int n) {
+		addSeqAll(values, null, n);
+	}
+	
+	/**
+	 * Adds a batch of elements to the sequential part of the skiplist. Every insertion resumes from the
+	 * predecessors of the previous one, so the batch costs one sweep instead of one find per value.
+	 * @param values The values to be added, sorted in ascending order
+	 * @param payloads The payloads of the values, or null if none of them carries one
+	 * @param n The number of values to be added
+	 */
+	public void addSeqAll(long[] values, Object[] payloads, int n) {
+		//Values beyond the end of the sequential part go to the parallel part, as in addSeq()
+		BucketNode last = lastSeq.get();
+		if(last != headPar) {
+			int m = n;
+			while(m > 0 && values[m - 1] > last.key)
+				m--;
+			for(int j = m; j < n; j++)
+				insertPar(values[j], payloads == null ? null : payloads[j], false);
+			n = m;
 		}
+		seqInsertions.addAndGet(n);
+		seqSize += n;
+		
+		BucketNode[] preds = new BucketNode[MAX_HEIGHT], succs = new BucketNode[MAX_HEIGHT];
+		Arrays.fill(preds, headSeq);
+		BucketNode node = null;
+		for(int j = 0; j < n; j++) {
+			long v = values[j];
+			Object payload = payloads == null ? null : payloads[j];
+			node = findFrom(preds, v, succs);
+			
+			//The node already exists
+			if(node != null) {
+				storePayload(node, payload);
+				node.incrementCounter();
+				continue;
+			}
+			
+			node = obtainNode(v, generateHeight());
+			storePayload(node, payload);
+			
+			//Physically inserts the node
+			for(int i = 0; i < node.topLevel; i++) {
+				node.setNext(i, succs[i]);
+				preds[i].setNext(i, node);
+			}
+			
+			//Updates the minimum value
+			if(v < minValue.get()) {
+				minValue.set(v);
+				currSeq = node;
+			}
+		}
+		
+		//The sequential part had no end yet. It ends at the largest value of the batch, and only from now on, so that
+		//addPar() refuses every value until the whole batch is in place.
+		if(node != null && (last == headPar || last == headSeq))
+			lastSeq.set(node);
 	}
 	
 	/**
@@ -121,12 +362,13 @@ public class Skiplist {
 	 * @param succs An array to store the values after the node to be inserted
 	 * @return (null, false) if the clean find fails or (node, true) if the clean find succeeds.
 	 */
-	private Tuple<BucketNode, Boolean> cleanFind(int v, BucketNode[] preds, BucketNode[] succs) {
-		int t = lockTimestamp.get();
+	private Tuple<BucketNode, Boolean> cleanFind(long v, BucketNode[] preds, BucketNode[] succs) {
+		int t = lock.stamp();
 		BucketNode b = find(headPar, v, preds, succs);
-		lock.readLock().lock();
-		if(t < lockTimestamp.get()) {
-			lock.readLock().unlock();
+		lock.readLock();
+		if(t != lock.stamp()) {
+			lock.readUnlock();
+			stats.cleanFindRestarts.increment();
 			return new Tuple<BucketNode, Boolean>(null, false);
 		}
 		return new Tuple<BucketNode, Boolean>(b, true);
@@ -137,10 +379,58 @@ public class Skiplist {
 	 * @param v The value to be inserted
 	 * @return false if unsuccessful, true if successful
 	 */
-	public boolean addPar(int v) {
+	public boolean addPar(long v) {
+		return addPar(v, null);
+	}
+	
+	/**
+	 * Adds a node with a payload to the parallel part of the skiplist
+	 * @param v The value to be inserted
+	 * @param payload The payload of the element, or null if it has none
+	 * @return false if unsuccessful, true if successful
+	 */
+	public boolean addPar(long v, Object payload) {
 		if(v <= lastSeq.get().key)
 			return false;
-		
+		return insertPar(v, payload, true);
+	}
+	
+	/**
+	 * Adds an element to the parallel part of the skiplist regardless of the sequential part. Only for skiplists
+	 * whose sequential part is never used, as removeRelaxed() requires.
+	 * @param v The value to be added
+	 */
+	public void addRelaxed(long v) {
+		insertPar(v, null, false);
+	}
+	
+	/* (non-Javadoc)
+	 * @see IPayloadSkiplist#discard(long, java.lang.Object)
+	 */
+	public boolean discard(long v, Object payload) {
+		BucketNode[] preds = new BucketNode[MAX_HEIGHT], succs = new BucketNode[MAX_HEIGHT];
+		lock.readLock();
+		try {
+			//The sequential part belongs to the sequential side, and cannot grow past the value while the read lock is held
+			if(v <= lastSeq.get().key)
+				return false;
+			BucketNode node = find(headPar, v, preds, succs);
+			
+			//The payload is stored before the counter is incremented, so a bucket that holds it counts it as well
+			return node != null && node.removePayload(payload) && claim(node);
+		} finally {
+			lock.readUnlock();
+		}
+	}
+	
+	/**
+	 * Inserts a node into the parallel part of the skiplist
+	 * @param v The value to be inserted
+	 * @param payload The payload of the element, or null if it has none
+	 * @param checkEnd true if the value must be refused when it no longer lies beyond the sequential part
+	 * @return false if the value was refused, true if it was inserted
+	 */
+	private boolean insertPar(long v, Object payload, boolean checkEnd) {
 		boolean x, r;
 		BucketNode b;
 		BucketNode[] preds = new BucketNode[MAX_HEIGHT], succs = new BucketNode[MAX_HEIGHT];
@@ -153,56 +443,236 @@ public class Skiplist {
 				r = tuple.b;
 			} while(!r);
 			
+			//A moveHead() since the caller looked may have moved the end of the sequential part past the value.
+			//The end cannot move further while the read lock is held.
+			if(checkEnd && v <= lastSeq.get().key) {
+				lock.readUnlock();
+				return false;
+			}
+			
 			//A node is found
 			if(b != null) {
-				b.counter.incrementAndGet();
-				lock.readLock().unlock();
+				storePayload(b, payload);
+				b.incrementCounter();
+				lock.readUnlock();
 				return true;
 			}
 			
 			b = new BucketNode(v, generateHeight());
+			storePayload(b, payload);
 			
 			//Updates the node's links
 			for(int i = 0; i < b.topLevel; i++)
-				b.next[i] = new AtomicReference<BucketNode>(succs[i]);
+				b.setNext(i, succs[i]);
 			
 			//Linearization point 1. Attempts to update the previous link to point to the new node.
-			if(!preds[0].next[0].compareAndSet(succs[0], b)) {
-				lock.readLock().unlock();
+			if(!preds[0].compareAndSetNext(0, succs[0], b)) {
+				lock.readUnlock();
+				stats.addParRetries.increment();
 				x = true;
 			}
 		} while(x);
 		
-		int m = minValue.get();
+		long m = minValue.get();
 		
 		//Linearization point 2. Attempts to update the minimum value.
 		while(m > v && !minValue.compareAndSet(m, v))
 			m = minValue.get();
 		
-		//Updates the links that the new node points to and updates the previous links to point to
-		//the new node.
-		for(int i = 0; i < b.topLevel; i++) {
-			if(preds[i].next[i].compareAndSet(succs[i], b)) {
-				b.next[i].set(succs[i]);
-				continue;
-			}
-			
-			lock.readLock().unlock();
+		//Links the upper levels. The read lock is still held, so nodes cannot be unlinked and a failed CAS
+		//only means that another node got in the way.
+		linkUpperLevels(b, preds, succs);
+		lock.readUnlock();
+		return true;
+	}
+	
+	/**
+	 * Adds a batch of values to the parallel part of the skiplist with a single traversal. The read lock
+	 * is held for the whole batch, so every insertion resumes from the predecessors of the previous one.
+	 * @param values The values to be inserted, sorted in ascending order
+	 * @param from The index of the first value to be inserted
+	 * @param to The index after the last value to be inserted
+	 * @return The index of the first value that was added. The values before it belong in the sequential part.
+	 */
+	public int addParAll(long[] values, int from, int to) {
+		lock.readLock();
+		
+		//The smallest values may belong in the sequential part
+		long last = lastSeq.get().key;
+		int start = from;
+		while(start < to && values[start] <= last)
+			start++;
+		
+		BucketNode[] preds = new BucketNode[MAX_HEIGHT], succs = new BucketNode[MAX_HEIGHT];
+		Arrays.fill(preds, headPar);
+		for(int j = start; j < to; j++) {
+			long v = values[j];
+			BucketNode b = findFrom(preds, v, succs);
 			
-			//A new node has gotten in the way. Do a new clean find and start again.
-			do {
-				Tuple<BucketNode, Boolean> tuple = cleanFind(v, preds, succs);
-				b = tuple.a;
-				r = tuple.b;
-			} while(!r);
+			//Nodes are never unlinked from the parallel part while the read lock is held, so a failed
+			//CAS only means that another node got in the way and the find can resume from preds
+			while(b == null) {
+				BucketNode node = new BucketNode(v, generateHeight());
+				storePayload(node, null);
+				for(int i = 0; i < node.topLevel; i++)
+					node.setNext(i, succs[i]);
+				if(preds[0].compareAndSetNext(0, succs[0], node)) {
+					linkUpperLevels(node, preds, succs);
+					break;
+				}
+				stats.addParRetries.increment();
+				b = findFrom(preds, v, succs);
+			}
+			if(b != null) {
+				storePayload(b, null);
+				b.incrementCounter();
+			}
+		}
+		
+		//The smallest value of the batch is the only one that can lower the minimum
+		if(start < to) {
+			long m = minValue.get();
+			while(m > values[start] && !minValue.compareAndSet(m, values[start]))
+				m = minValue.get();
+		}
+		
+		lock.readUnlock();
+		return start;
+	}
+	
+	/**
+	 * Links a node that is already linked on the bottom level into its upper levels. Must be called while holding the read lock.
+	 * @param node The node
+	 * @param preds The predecessors of the node on every level
+	 * @param succs The successors of the node on every level
+	 */
+	private void linkUpperLevels(BucketNode node, BucketNode[] preds, BucketNode[] succs) {
+		for(int i = 1; i < node.topLevel; i++) {
+			while(!preds[i].compareAndSetNext(i, succs[i], node)) {
+				stats.addParRetries.increment();
+				findFrom(preds, node.key, succs);
+				node.setNext(i, succs[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Removes a value close to the minimum from the parallel part of the skiplist, in the style of the SprayList
+	 * of Alistarh et al. The remover starts log P + 1 levels up and walks forward a random number of up to
+	 * log^3 P nodes on every level on its way down, which spreads concurrent removers over the first
+	 * O(P log^3 P) nodes. It claims the first bucket from where it lands that still holds an element by
+	 * decrementing its counter, so removers rarely meet and never wait for one another. Emptied buckets stay
+	 * linked until a spray passes over enough of them to be worth unlinking under the write lock. Only for
+	 * skiplists whose sequential part is never used: every value must be added with addRelaxed().
+	 * @param numThreads The number of threads removing concurrently, which sets the width of the spray
+	 * @return The removed value, or Long.MAX_VALUE if the skiplist is empty
+	 */
+	public long removeRelaxed(int numThreads) {
+		int logP = sprayLog(numThreads);
+		int height = Math.min(logP + 1, MAX_HEIGHT);
+		int maxJump = logP * logP * logP;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int skipped = 0; //The emptied buckets passed over
+		long key = Long.MAX_VALUE;
+		
+		lock.readLock();
+		try {
+			BucketNode node = headPar;
+			for(int h = height - 1; h >= 0; h--) {
+				for(int j = random.nextInt(maxJump + 1); j > 0; j--) {
+					BucketNode next = node.getNext(h);
+					if(next == tail)
+						break;
+					node = next;
+				}
+			}
+			if(node == headPar)
+				node = headPar.getNext(0);
 			
-			if(b == null) {
-				lock.readLock().unlock();
+			//Claims the first bucket from the landing point on, then from the front if the spray overshot every element
+			for(int pass = 0; pass < 2 && key == Long.MAX_VALUE; pass++) {
+				for(; node != tail; node = node.getNext(0)) {
+					if(claim(node)) {
+						key = node.key;
+						break;
+					}
+					skipped++;
+				}
+				node = headPar.getNext(0);
+			}
+		} finally {
+			lock.readUnlock();
+		}
+		
+		if(skipped > SPRAY_CLEANUP_THRESHOLD)
+			unlinkEmptied(key);
+		return key;
+	}
+	
+	/**
+	 * Estimates how far removeRelaxed() reaches into the skiplist: nodes on level h are 2^h apart on average, so a
+	 * spray covers up to log^3 P * (2^(log P + 1) - 1) nodes. The rank error of a removal is of the same order.
+	 * @param numThreads The number of threads removing concurrently
+	 * @return The number of nodes a spray reaches at most, on average
+	 */
+	public static int sprayWidth(int numThreads) {
+		int logP = sprayLog(numThreads);
+		return logP * logP * logP * ((2 << logP) - 1);
+	}
+	
+	/**
+	 * Computes the logarithm that sizes a spray
+	 * @param numThreads The number of threads removing concurrently
+	 * @return log P, rounded up, and at least 1
+	 */
+	private static int sprayLog(int numThreads) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(numThreads, 2) - 1);
+	}
+	
+	/**
+	 * Takes one element from a bucket in the parallel part, unless it has been emptied
+	 * @param node The bucket
+	 * @return true if an element was taken
+	 */
+	private boolean claim(BucketNode node) {
+		int c = node.getCounter();
+		while(c > 0) {
+			if(node.compareAndSetCounter(c, c - 1))
 				return true;
+			c = node.getCounter();
+		}
+		return false;
+	}
+	
+	/**
+	 * Unlinks the emptied buckets left behind by removeRelaxed() in the region that the sprays cover. Removers hold
+	 * the read lock for most of their time, so this waits for the write lock rather than trying it; a thread that
+	 * queued up behind another cleanup finds little left to unlink.
+	 * @param lastKey The key of the last bucket that may be unlinked
+	 */
+	private void unlinkEmptied(long lastKey) {
+		lock.writeLock();
+		unlinkEmpty(lastKey);
+		lock.writeUnlock();
+	}
+	
+	/**
+	 * Unlinks the emptied buckets at the front of the parallel part. Only called while holding the write lock.
+	 * @param lastKey The key of the last bucket that may be unlinked
+	 */
+	private void unlinkEmpty(long lastKey) {
+		//Counters cannot change while the write lock is held, so a bucket is unlinked on every level or on none
+		for(int i = 0; i < MAX_HEIGHT; i++) {
+			BucketNode pred = headPar;
+			BucketNode next = pred.getNext(i);
+			while(next != tail && next.key <= lastKey) {
+				if(next.getCounter() == 0)
+					pred.setNext(i, next.getNext(i));
+				else
+					pred = next;
+				next = next.getNext(i);
 			}
 		}
-		lock.readLock().unlock();
-		return true;
 	}
 	
 	/**
@@ -211,40 +681,53 @@ public class Skiplist {
 	 */
 	public boolean moveHead() {
 		int n = determineDynamically();
-		lock.writeLock().lock();
+		lock.writeLock();
 		currSeq = null;
 		
-		//Finds the first n nodes in the parallel part
-		BucketNode pred = headPar;
-		BucketNode curr = headPar.next[0].get();
+		//Finds the first n nodes in the parallel part, passing over buckets emptied by discard()
+		BucketNode last = null;
+		BucketNode curr = headPar.getNext(0);
+		boolean emptied = false;
 		int i = 0;
 		while(i < n && curr != tail) {
-			i += curr.counter.get();
-			if(currSeq == null) {
-				currSeq = curr;
-				minValue.set(curr.key);
+			int c = curr.getCounter();
+			emptied |= c == 0;
+			if(c > 0) {
+				i += c;
+				if(currSeq == null) {
+					currSeq = curr;
+					minValue.set(curr.key);
+				}
+				last = curr;
 			}
-			pred = curr;
-			curr = curr.next[0].get();
+			curr = curr.getNext(0);
 		}
 		
 		//The parallel part is empty
 		if(i == 0) {
 			for(i = MAX_HEIGHT - 1; i >= 0; i--) {
-				headPar.next[i].set(tail);
-				headSeq.next[i].set(tail);
+				headPar.setNext(i, tail);
+				headSeq.setNext(i, tail);
 			}
 			lastSeq.set(headPar);
-			minValue.set(Integer.MAX_VALUE);
-			lockTimestamp.incrementAndGet();
-			lock.writeLock().unlock();
+			minValue.set(Long.MAX_VALUE);
+			seqSize = 0;
+			lock.writeUnlock();
 			return false;
 		}
 		
+		seqSize = i;
+		stats.moveHeads.increment();
+		stats.movedElements.add(i);
+		
+		//The emptied buckets are unlinked, so that the sequential part only holds buckets with elements
+		if(emptied)
+			unlinkEmpty(last.key);
+		
 		//Update the sequential staring point to the parallel starting point
-		lastSeq.set(pred);
+		lastSeq.set(last);
 		for(i = MAX_HEIGHT - 1; i >= 0; i--)
-			headSeq.next[i] = new AtomicReference<BucketNode>(headPar.next[i].get());
+			headSeq.setNext(i, headPar.getNext(i));
 		
 		//Update the new sequential ending nodes to point to the dummy tail and update
 		//the parallel head to point to point to where the sequential ending ends.
@@ -252,11 +735,10 @@ public class Skiplist {
 		find(headSeq, lastSeq.get().key + 1, preds, succs);
 		find(headSeq, lastSeq.get().key, new BucketNode[MAX_HEIGHT], succs);
 		for(i = MAX_HEIGHT - 1; i >= 0; i--) {
-			preds[i].next[i] = new AtomicReference<BucketNode>(tail);
-			headPar.next[i] = new AtomicReference<BucketNode>(succs[i]);
+			preds[i].setNext(i, tail);
+			headPar.setNext(i, succs[i]);
 		}
-		lockTimestamp.incrementAndGet();
-		lock.writeLock().unlock();
+		lock.writeUnlock();
 		return true;
 	}
 	
@@ -280,7 +762,10 @@ public class Skiplist {
 	}
 	
 	/**
-	 * Moves the sequential part to the parallel part
+	 * Moves the sequential part to the parallel part, so that adds that would have gone through the
+	 * sequential part can be made in parallel again. The sequential part is left empty with lastSeq
+	 * pointing to headSeq, which every value but the smallest lies beyond, so that addPar() accepts
+	 * them until the next moveHead().
 	 * @return true if successful
 	 */
 	public boolean chopHead() {
@@ -288,27 +773,33 @@ public class Skiplist {
 		if(currSeq == null)
 			return false;
 		
-		//Gets the predecessors of the end of the sequential list and the successors of the beginning of the sequential list
+		//Gets the last node of the sequential part on every level, or headSeq on levels it does not reach.
+		//headSeq itself points to the first node on every level.
 		BucketNode[] preds = new BucketNode[MAX_HEIGHT], succs = new BucketNode[MAX_HEIGHT];
 		find(headSeq, lastSeq.get().key + 1, preds, succs);
-		find(headSeq, currSeq.key, new BucketNode[MAX_HEIGHT], succs);
 		
-		lock.writeLock().lock();
+		lock.writeLock();
 		
-		//Update the end of the sequential list to point to the beginning of the parallel list
-		for(int i = MAX_HEIGHT - 1; i >= 0; i--)
-			preds[i].next[i] = new AtomicReference<BucketNode>(headPar.next[i].get());
+		//Splices the sequential part in front of the parallel part on the levels it reaches
+		for(int i = MAX_HEIGHT - 1; i >= 0; i--) {
+			if(preds[i] != headSeq) {
+				preds[i].setNext(i, headPar.getNext(i));
+				headPar.setNext(i, headSeq.getNext(i));
+			}
+			headSeq.setNext(i, tail);
+		}
 		
-		lastSeq.set(headPar);
+		lastSeq.set(headSeq);
 		currSeq = null;
+		stats.chopHeads.increment();
+		stats.choppedElements.add(seqSize);
+		seqSize = 0;
 		
-		//Update the beginning of the parallel list to point to the beginning of the sequential list
-		for(int i = MAX_HEIGHT - 1; i >= 0; i--)
-			if(succs[i] != tail)
-				headPar.next[i] = new AtomicReference<BucketNode>(succs[i]);
+		//The last moveHead() took more elements than the removes needed
+		int n = seqElementsToAdd.get();
+		seqElementsToAdd.compareAndSet(n, Math.max(n >> 1, MIN_SEQUENTIAL_ELEMENTS_TO_ADD));
 		
-		lockTimestamp.incrementAndGet();
-		lock.writeLock().unlock();
+		lock.writeUnlock();
 		return true;
 	}
 	
@@ -320,10 +811,10 @@ public class Skiplist {
 	 * @param succs An array to store the values after the node to be inserted
 	 * @return The node if it exists, otherwise null
 	 */
-	private BucketNode find(BucketNode head, int v, BucketNode[] preds, BucketNode[] succs) {
+	private BucketNode find(BucketNode head, long v, BucketNode[] preds, BucketNode[] succs) {
 		int h = MAX_HEIGHT - 1;
 		while(h >= 0) {
-			BucketNode next = head.next[h].get(); //The link to the next node
+			BucketNode next = head.getNext(h); //The link to the next node
 			
 			//If the node to be inserted is larger, move right. If not, move down
 			if(v > next.key) {
@@ -333,16 +824,75 @@ public class Skiplist {
 				preds[h] = head;
 				succs[h] = next;
 				if(v == next.key)
-					succs[h] = next.next[h].get();
+					succs[h] = next.getNext(h);
 				h--;
 			}
 		}
 		
-		if(v == head.next[0].get().key)
-			return head.next[0].get();
+		BucketNode next = head.getNext(0);
+		if(v == next.key)
+			return next;
+		return null;
+	}
+	
+	/**
+	 * Finds where the specified value resides or would reside, resuming from the predecessors of a
+	 * smaller value instead of from the head
+	 * @param preds The predecessors of a value smaller than v, updated to the predecessors of v
+	 * @param v The value to be inserted
+	 * @param succs An array to store the values after the node to be inserted
+	 * @return The node if it exists, otherwise null
+	 */
+	private BucketNode findFrom(BucketNode[] preds, long v, BucketNode[] succs) {
+		BucketNode head = preds[MAX_HEIGHT - 1];
+		for(int h = MAX_HEIGHT - 1; h >= 0; h--) {
+			//Start from whichever of the two candidates lies further right. headPar lies before every node.
+			if(head == headPar || (preds[h] != headPar && preds[h].key > head.key))
+				head = preds[h];
+			
+			BucketNode next = head.getNext(h);
+			while(v > next.key) {
+				head = next;
+				next = head.getNext(h);
+			}
+			preds[h] = head;
+			succs[h] = next;
+			if(v == next.key)
+				succs[h] = next.getNext(h);
+		}
+		
+		BucketNode next = preds[0].getNext(0);
+		if(v == next.key)
+			return next;
 		return null;
 	}
 	
+	/**
+	 * Fetches a node for the sequential part, reusing a recycled node of the same height if one is available
+	 * @param v The key of the node
+	 * @param topLevel The height of the node
+	 * @return The node
+	 */
+	private BucketNode obtainNode(long v, int topLevel) {
+		if(pool == null || poolSize[topLevel] == 0)
+			return new BucketNode(v, topLevel);
+		
+		BucketNode node = pool[topLevel][--poolSize[topLevel]];
+		pool[topLevel][poolSize[topLevel]] = null;
+		node.reset(v);
+		return node;
+	}
+	
+	/**
+	 * Returns a node unlinked from the sequential part to the pool, if recycling is enabled and the pool has room
+	 * @param node The unlinked node
+	 */
+	private void recycle(BucketNode node) {
+		if(pool == null || poolSize[node.topLevel] == POOL_CAPACITY)
+			return;
+		pool[node.topLevel][poolSize[node.topLevel]++] = node;
+	}
+	
 	/**
 	 * Generates a random height between 1 and the maximum height specified
 	 * @return The generated height
@@ -356,33 +906,182 @@ public class Skiplist {
 	
 	/**
 	 * Fetches the minimum skiplist value
-	 * @return The minimum skiplist value
+	 * @return The minimum skiplist value, or Long.MAX_VALUE if the skiplist is empty
 	 */
-	public int getMinValue() {
+	public long getMinValue() {
 		return minValue.get();
 	}
 	
 	/**
-	 * A node to store skiplist buckets
+	 * Determines if duplicates of a value are removed in the order they were added
+	 * @return true if the skiplist was created in stable mode
+	 */
+	public boolean isStable() {
+		return stable;
+	}
+	
+	/**
+	 * Fetches the counters of the skiplist
+	 * @return The counters
+	 */
+	public QueueStats stats() {
+		return stats;
+	}
+	
+	/**
+	 * A node to store skiplist buckets. The counter and links are kept inline and accessed through
+	 * VarHandles, and only topLevel links are allocated.
 	 * @author Ryan Kelsey and Lee Berman
 	 *
 	 */
-	private class BucketNode {
-		public int key, topLevel;
-		public AtomicInteger counter;
-		public AtomicReference<BucketNode>[] next;
+	private static class BucketNode {
+		public long key;
+		public int topLevel;
+		private volatile int counter;
+		private final BucketNode[] next;
+		private Object[] payloads; //The stored payloads, as a ring starting at payloadHead, allocated on first use
+		private int payloadHead, payloadCount;
 		
-		@SuppressWarnings("unchecked")
-		public BucketNode(int key, int topLevel) {
+		private static final VarHandle COUNTER;
+		private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(BucketNode[].class);
+		
+		static {
+			try {
+				COUNTER = MethodHandles.lookup().findVarHandle(BucketNode.class, "counter", int.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+		
+		public BucketNode(long key, int topLevel) {
 			this.key = key;
 			this.topLevel = topLevel;
-			this.counter = new AtomicInteger(1);
-			this.next = new AtomicReference[MAX_HEIGHT];
+			this.counter = 1;
+			this.next = new BucketNode[topLevel];
+		}
+		
+		/**
+		 * Prepares a recycled node to be linked in again. The links are left as they are: a lock-free find()
+		 * that reached the node before it was unlinked may still be walking it, and the caller overwrites every
+		 * link before the node is linked in again.
+		 * @param key The new key
+		 */
+		public void reset(long key) {
+			this.key = key;
+			this.counter = 1;
+			this.payloads = null;
+			this.payloadHead = 0;
+			this.payloadCount = 0;
+		}
+		
+		/**
+		 * Determines if any duplicate in this bucket has carried a payload. Only called by the
+		 * sequential side, which moveHead() orders after every parallel add to the bucket.
+		 * @return true if payloads may be stored
+		 */
+		public boolean hasPayloads() {
+			return payloads != null;
+		}
+		
+		/**
+		 * Stores the payload of a duplicate added to this bucket after the payloads already stored
+		 * @param payload The payload
+		 */
+		public synchronized void pushPayload(Object payload) {
+			if(payloads == null)
+				payloads = new Object[2];
+			else if(payloadCount == payloads.length) {
+				//Unrolls the ring into an array twice the size, oldest payload first
+				Object[] grown = new Object[payloadCount << 1];
+				for(int i = 0; i < payloadCount; i++)
+					grown[i] = payloads[(payloadHead + i) & (payloadCount - 1)];
+				payloads = grown;
+				payloadHead = 0;
+			}
+			payloads[(payloadHead + payloadCount++) & (payloads.length - 1)] = payload;
+		}
+		
+		/**
+		 * Takes a payload out of this bucket wherever it is stored, keeping the others in order
+		 * @param payload The payload, compared by identity
+		 * @return true if the payload was stored in this bucket
+		 */
+		public synchronized boolean removePayload(Object payload) {
+			for(int i = 0; i < payloadCount; i++) {
+				if(payloads[(payloadHead + i) & (payloads.length - 1)] != payload)
+					continue;
+				
+				//Closes the gap by moving the payloads stored after it one place back
+				for(; i < payloadCount - 1; i++)
+					payloads[(payloadHead + i) & (payloads.length - 1)] = payloads[(payloadHead + i + 1) & (payloads.length - 1)];
+				payloads[(payloadHead + --payloadCount) & (payloads.length - 1)] = null;
+				return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * Takes the payload stored last in this bucket
+		 * @return The payload, or null if none is stored
+		 */
+		public synchronized Object popPayload() {
+			if(payloadCount == 0)
+				return null;
+			int i = (payloadHead + --payloadCount) & (payloads.length - 1);
+			Object payload = payloads[i];
+			payloads[i] = null;
+			return payload;
+		}
+		
+		/**
+		 * Takes the payload stored first in this bucket
+		 * @return The payload, or null if none is stored
+		 */
+		public synchronized Object pollPayload() {
+			if(payloadCount == 0)
+				return null;
+			Object payload = payloads[payloadHead];
+			payloads[payloadHead] = null;
+			payloadHead = (payloadHead + 1) & (payloads.length - 1);
+			payloadCount--;
+			return payload;
+		}
+		
+		public int getCounter() {
+			return counter;
+		}
+		
+		public int incrementCounter() {
+			return (int) COUNTER.getAndAdd(this, 1) + 1;
+		}
+		
+		public int decrementCounter() {
+			return (int) COUNTER.getAndAdd(this, -1) - 1;
+		}
+		
+		public boolean compareAndSetCounter(int expected, int counter) {
+			return COUNTER.compareAndSet(this, expected, counter);
+		}
+		
+		public int addToCounter(int delta) {
+			return (int) COUNTER.getAndAdd(this, delta) + delta;
+		}
+		
+		public BucketNode getNext(int level) {
+			return (BucketNode) NEXT.getVolatile(next, level);
+		}
+		
+		public void setNext(int level, BucketNode node) {
+			NEXT.setVolatile(next, level, node);
+		}
+		
+		public boolean compareAndSetNext(int level, BucketNode expected, BucketNode node) {
+			return NEXT.compareAndSet(next, level, expected, node);
 		}
 		
 		@Override
 		public String toString() {
-			return String.format("BucketNode %d %d %d", key, topLevel, counter.get());
+			return String.format("BucketNode %d %d %d", key, topLevel, counter);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A relaxed priority queue in the style of the SprayList of Alistarh, Kopinsky, Li, and Shavit. Values are kept
+ * in the parallel part of a skiplist only, and removes take a random walk over its first nodes instead of asking
+ * a Server thread for the minimum. Removes thus proceed in parallel, at the cost of returning one of the first
+ * O(P log^3 P) values rather than always the minimum, where P is the number of threads.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class SprayPriorityQueue implements IPriorityQueue {
+    private Skiplist skiplist;
+    private int numThreads;
+
+    /**
+     * Creates the priority queue with a spray as wide as the number of processors
+     * @param h The height of the skiplist
+     */
+    public SprayPriorityQueue(int h) {
+        this(new Skiplist(h), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the priority queue
+     * @param skiplist The empty skiplist to store the values in
+     * @param numThreads The number of threads expected to remove concurrently. A wider spray means fewer
+     * collisions between removes and a larger rank error.
+     */
+    public SprayPriorityQueue(Skiplist skiplist, int numThreads) {
+        this.skiplist = skiplist;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Fetches the number of threads the spray is sized for
+     * @return The number of threads
+     */
+    public int numThreads() {
+        return numThreads;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(int)
+     */
+    public int removeMin(int threadId) {
+        while(true) {
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent())
+                return value.getAsInt();
+            Thread.onSpinWait();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#tryRemoveMin(int)
+     */
+    public OptionalInt tryRemoveMin(int threadId) {
+        long value = skiplist.removeRelaxed(numThreads);
+        return value == Long.MAX_VALUE ? OptionalInt.empty() : OptionalInt.of((int) value);
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#removeMin(long, java.util.concurrent.TimeUnit, int)
+     */
+    public OptionalInt removeMin(long timeout, TimeUnit unit, int threadId) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(true) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            OptionalInt value = tryRemoveMin(threadId);
+            if(value.isPresent() || System.nanoTime() - deadline >= 0)
+                return value;
+            Thread.yield();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#add(int, int)
+     */
+    public boolean add(int inValue, int threadId) {
+        skiplist.addRelaxed(inValue);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#addAll(int[], int)
+     */
+    public boolean addAll(int[] values, int threadId) {
+        boolean added = true;
+        for(int v : values)
+            added &= add(v, threadId);
+        return added;
+    }
+
+    /* (non-Javadoc)
+     * @see IPriorityQueue#drainMin(int[], int, int)
+     */
+    public int drainMin(int[] out, int max, int threadId) {
+        int n = 0, limit = Math.min(max, out.length);
+        OptionalInt value;
+        while(n < limit && (value = tryRemoveMin(threadId)).isPresent())
+            out[n++] = value.getAsInt();
+        return n;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,619 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A stress tester that checks a priority queue for correctness rather than speed. Every thread records
+ * each operation it performs together with the System.nanoTime() at which it started and ended. The
+ * history is then checked for conservation (every added value is removed exactly once, and nothing is
+ * removed that was not added) and for priority order: a remove must not return a value while a smaller
+ * value was certainly in the queue for the whole of the remove. Relaxed queues may be allowed to skip a
+ * bounded number of smaller values.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class StressChecker implements Runnable {
+    private static final int ADD = 0;
+    private static final int REMOVE = 1;
+    private static final int EMPTY = Integer.MAX_VALUE; //The value recorded for a remove that found the queue empty
+    private static final int RELAXED_RANK_ERROR = 64; //The rank error tolerated per heap of a MultiQueue, and on top of twice the spray width of a SprayPriorityQueue
+
+    private int threadId;
+    private int numThreads;
+    private int numOperations;
+    private double operationMix; //0-1, higher = more additions
+    private IPriorityQueue queueObject;
+    private int size; //The number of operations recorded
+    private int[] types;
+    private int[] values;
+    private long[] starts;
+    private long[] ends;
+
+    private StressChecker(int threadId, int numThreads, int numOperations, double operationMix, IPriorityQueue queueObject) {
+        this.threadId = threadId;
+        this.numThreads = numThreads;
+        this.numOperations = numOperations;
+        this.operationMix = operationMix;
+        this.queueObject = queueObject;
+        types = new int[numOperations];
+        values = new int[numOperations];
+        starts = new long[numOperations];
+        ends = new long[numOperations];
+    }
+
+    /**
+     * The entry point of the program. It checks every queue at increasing thread counts.
+     * @param args The command line arguments: optionally the maximum number of threads and the number of operations per thread
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        int numOperations = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        boolean failed = false;
+        ISkiplist[] skiplists = {new Skiplist(23), new OffHeapSkiplist(23)};
+        String[] skiplistNames = {"SkiplistAdds-23h", "OffHeapSkiplistAdds-23h"};
+        for(int i = 0; i < skiplists.length; i++) {
+            Report report = checkParallelAdds(skiplists[i], numOperations);
+            System.out.println(skiplistNames[i] + ",1: " + report);
+            failed |= !report.isValid();
+        }
+        IPriorityQueue[] drainQueues = {
+            new SequentialPriorityQueue<Object>(),
+            new ConcurrentPriorityQueue<Object>(),
+            new PaperPriorityQueue<Object>(new Skiplist(23), WaitStrategy.BLOCKING),
+            new PaperPriorityQueue<Object>(new Skiplist(23), WaitStrategy.BLOCKING, 0),
+            new MultiQueue(),
+            new SprayPriorityQueue(new Skiplist(23), 1),
+            new LindenJonssonPriorityQueue(23),
+            new BucketPriorityQueue(0, 1 << 16),
+            new InstrumentedPriorityQueue(new SequentialPriorityQueue<Object>())
+        };
+        String[] drainNames = {"SequentialDrain", "ConcurrentDrain", "PaperDrain-23h", "PaperCombiningDrain-23h", "MultiQueueDrain", "SprayDrain-23h", "LindenJonssonDrain-23h", "BucketDrain-64k", "InstrumentedDrain"};
+        for(int i = 0; i < drainQueues.length; i++) {
+            Report report = checkDrainBound(drainQueues[i]);
+            System.out.println(drainNames[i] + ",1: " + report);
+            failed |= !report.isValid();
+        }
+        Report[] decreaseReports = {
+            checkDecreases(new PaperPriorityQueue<Integer>(new Skiplist(23), WaitStrategy.BLOCKING), 1000, 50),
+            checkDecreases(new PaperPriorityQueue<Integer>(new Skiplist(23), WaitStrategy.BLOCKING, 0), 1000, 50)
+        };
+        String[] decreaseNames = {"PaperDecreases-23h", "PaperCombiningDecreases-23h"};
+        for(int i = 0; i < decreaseReports.length; i++) {
+            System.out.println(decreaseNames[i] + ",1: " + decreaseReports[i]);
+            failed |= !decreaseReports[i].isValid();
+        }
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            MultiQueue multiQueue = new MultiQueue();
+            Report[] reports = {
+                check(threads, numOperations, 0.5, new SequentialPriorityQueue<Object>(), 0),
+                check(threads, numOperations, 0.5, new ConcurrentPriorityQueue<Object>(), 0),
+                check(threads, numOperations, 0.5, new PaperPriorityQueue<Object>(new Skiplist(23), WaitStrategy.BLOCKING), 0),
+                check(threads, numOperations, 0.5, new PaperPriorityQueue<Object>(new Skiplist(23), WaitStrategy.BLOCKING, 0), 0),
+                check(threads, numOperations, 0.5, new PaperPriorityQueue<Object>(new Skiplist(23, false, true), WaitStrategy.BLOCKING), 0),
+                check(threads, numOperations, 0.5, new PaperPriorityQueue<Object>(new Skiplist(23, true), WaitStrategy.BLOCKING), 0),
+                check(threads, numOperations, 0.5, new PaperPriorityQueue<Object>(new OffHeapSkiplist(23), WaitStrategy.BLOCKING), 0),
+                check(threads, numOperations, 0.5, multiQueue, RELAXED_RANK_ERROR * multiQueue.numHeaps()),
+                check(threads, numOperations, 0.5, new SprayPriorityQueue(new Skiplist(23), threads), RELAXED_RANK_ERROR + 2 * Skiplist.sprayWidth(threads)),
+                check(threads, numOperations, 0.5, new LindenJonssonPriorityQueue(23), 0),
+                check(threads, numOperations, 0.5, new BucketPriorityQueue(0, 1 << 16), 0),
+                checkHandles(threads, numOperations, new PaperPriorityQueue<Integer>(new Skiplist(23), WaitStrategy.BLOCKING)),
+                checkHandles(threads, numOperations, new PaperPriorityQueue<Integer>(new Skiplist(23), WaitStrategy.BLOCKING, 0))
+            };
+            String[] names = {"Sequential", "Concurrent", "Paper-23h", "PaperCombining-23h", "PaperStable-23h", "PaperRecycling-23h", "PaperOffHeap-23h", "MultiQueue", "Spray-23h", "LindenJonsson-23h", "Bucket-64k", "PaperHandles-23h", "PaperCombiningHandles-23h"};
+            for(int i = 0; i < reports.length; i++) {
+                System.out.println(names[i] + "," + threads + ": " + reports[i]);
+                failed |= !reports[i].isValid();
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Runs a stress test on the given priority queue and checks its history. Every added value is unique, so
+     * that each remove can be matched to the add it undoes.
+     * @param numThreads The number of threads to use
+     * @param numOperations The number of operations per thread
+     * @param operationMix The operation mix to use
+     * @param queueObject The queue to test, which should be empty
+     * @param relaxation The number of smaller values a remove may skip, 0 for a strict priority queue
+     * @return The result of the checks
+     * @throws InterruptedException
+     */
+    public static Report check(int numThreads, int numOperations, double operationMix, IPriorityQueue queueObject, int relaxation) throws InterruptedException {
+        Thread[] threads = new Thread[numThreads];
+        StressChecker[] checkers = new StressChecker[numThreads];
+        for(int i = 0; i < numThreads; i++) {
+            checkers[i] = new StressChecker(i, numThreads, numOperations, operationMix, queueObject);
+            threads[i] = new Thread(checkers[i]);
+        }
+        for(Thread thread : threads)
+            thread.start();
+        for(Thread thread : threads)
+            thread.join();
+
+        //Once quiescent, the values left in a strict queue must come out in ascending order
+        Report report = new Report();
+        List<Integer> remaining = new ArrayList<Integer>();
+        OptionalInt value;
+        while((value = queueObject.tryRemoveMin(0)).isPresent()) {
+            if(relaxation == 0 && !remaining.isEmpty() && value.getAsInt() < remaining.get(remaining.size() - 1))
+                report.drainOrderViolations++;
+            remaining.add(value.getAsInt());
+        }
+
+        IPriorityQueue queue = queueObject instanceof InstrumentedPriorityQueue ? ((InstrumentedPriorityQueue) queueObject).getQueue() : queueObject;
+        if(queue instanceof PaperPriorityQueue<?>)
+            ((PaperPriorityQueue<?>) queue).stop();
+
+        report.checkConservation(checkers, remaining);
+        report.checkOrder(checkers, relaxation);
+        return report;
+    }
+
+    /**
+     * Adds distinct values to the parallel part of an empty skiplist on one thread, then moves them to the
+     * sequential part and removes them. With no other thread to get in the way, no add may have to retry,
+     * and the values must come back out once each and in ascending order.
+     * @param skiplist The skiplist to test, which should be empty
+     * @param numValues The number of values to add
+     * @return The result of the checks
+     */
+    public static Report checkParallelAdds(ISkiplist skiplist, int numValues) {
+        Report report = new Report();
+        long retries = skiplist.stats().addParRetries.sum();
+        List<Long> added = new ArrayList<Long>();
+
+        //The parallel part only takes values beyond the end of the sequential part, so that needs an end first
+        skiplist.addSeq(-1);
+        added.add(-1L);
+        for(long i = 0; i < numValues; i++) {
+            long v = (i * 0x9E3779B1L) & Integer.MAX_VALUE; //A bijection on 31 bits, so the values are distinct
+            if(skiplist.addPar(v))
+                added.add(v);
+        }
+        report.adds = added.size();
+        report.addRetries = skiplist.stats().addParRetries.sum() - retries;
+
+        List<Long> drained = new ArrayList<Long>();
+        while(true) {
+            long v = skiplist.removeSeq();
+            if(v == Long.MAX_VALUE) {
+                if(!skiplist.moveHead())
+                    break;
+                continue;
+            }
+            if(!drained.isEmpty() && v < drained.get(drained.size() - 1))
+                report.drainOrderViolations++;
+            drained.add(v);
+        }
+        report.remaining = drained.size();
+        report.checkBalance(added, drained);
+        return report;
+    }
+
+    /**
+     * Drains a few values from a queue through drainMin() with an array shorter than the number of values asked
+     * for. The array bounds the drain, so each call must remove no more values than the array holds, and the
+     * calls must remove every value once.
+     * @param queue The queue to test, which should be empty
+     * @return The result of the checks
+     * @throws InterruptedException
+     */
+    public static Report checkDrainBound(IPriorityQueue queue) throws InterruptedException {
+        Report report = new Report();
+        List<Long> added = new ArrayList<Long>();
+        for(int v = 5; v > 0; v--) {
+            queue.add(v, 0);
+            added.add((long) v);
+        }
+        report.adds = added.size();
+
+        List<Long> drained = new ArrayList<Long>();
+        int[] out = new int[2];
+        try {
+            int n;
+            while((n = queue.drainMin(out, added.size(), 0)) > 0) {
+                if(n > out.length)
+                    report.drainOverflows++;
+                for(int i = 0; i < Math.min(n, out.length); i++)
+                    drained.add((long) out[i]);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            report.drainOverflows++;
+        }
+        report.remaining = drained.size();
+
+        IPriorityQueue inner = queue instanceof InstrumentedPriorityQueue ? ((InstrumentedPriorityQueue) queue).getQueue() : queue;
+        if(inner instanceof PaperPriorityQueue<?>)
+            ((PaperPriorityQueue<?>) inner).stop();
+
+        report.checkBalance(added, drained);
+        return report;
+    }
+
+    /**
+     * Adds values with addEntry() on one thread and decreases each of them repeatedly before removing them all.
+     * A decrease takes the old entry out of the parallel part of the skiplist, so the removes must move no more
+     * elements to the sequential part than there are values, and the values must come out once each and with
+     * their last value.
+     * @param queue The queue to test, which should be empty
+     * @param numValues The number of values to add
+     * @param numDecreases The number of times to decrease each value
+     * @return The result of the checks
+     */
+    public static Report checkDecreases(PaperPriorityQueue<Integer> queue, int numValues, int numDecreases) {
+        Report report = new Report();
+        List<PaperPriorityQueue.Handle<Integer>> handles = new ArrayList<PaperPriorityQueue.Handle<Integer>>();
+        long[] values = new long[numValues]; //The last value given to each handle by addEntry() or by a decreaseKey() that returned true
+        for(int i = 0; i < numValues; i++) {
+            values[i] = (long) (i + 1) * numDecreases * 4;
+            handles.add(queue.addEntry(values[i], i, 0));
+        }
+
+        //Decreases by varying steps, so that the old and new entries of different values share buckets
+        for(int d = 0; d < numDecreases; d++) {
+            for(int i = 0; i < numValues; i++) {
+                long v = values[i] - 1 - i % 7;
+                if(queue.decreaseKey(handles.get(i), v, 0))
+                    values[i] = v;
+            }
+        }
+        List<Long> added = new ArrayList<Long>();
+        for(long v : values)
+            added.add(v);
+        report.adds = added.size();
+
+        List<Long> drained = new ArrayList<Long>();
+        Tuple<Long, Integer> entry;
+        while((entry = queue.removeMinLongEntry(0)).a != Long.MAX_VALUE) {
+            if(!drained.isEmpty() && entry.a < drained.get(drained.size() - 1))
+                report.drainOrderViolations++;
+            drained.add(entry.a);
+        }
+        report.remaining = drained.size();
+        report.staleEntries = Math.max(queue.stats().movedElements.sum() - numValues, 0);
+        queue.stop();
+
+        report.checkBalance(added, drained);
+        return report;
+    }
+
+    /**
+     * Runs a stress test on the handles of a PaperPriorityQueue and checks what became of every value. Each
+     * thread adds values with addEntry(), decreases and removes values it added through their handles, and
+     * removes the smallest values. A value must leave the queue exactly once, and a value taken by a remove
+     * must carry the last value its handle was given by addEntry() or by a decreaseKey() that returned true.
+     * @param numThreads The number of threads to use
+     * @param numOperations The number of operations per thread
+     * @param queue The queue to test, which should be empty
+     * @return The result of the checks
+     * @throws InterruptedException
+     */
+    public static Report checkHandles(int numThreads, int numOperations, PaperPriorityQueue<Integer> queue) throws InterruptedException {
+        Thread[] threads = new Thread[numThreads];
+        HandleChecker[] checkers = new HandleChecker[numThreads];
+        for(int i = 0; i < numThreads; i++) {
+            checkers[i] = new HandleChecker(i, numThreads, numOperations, queue);
+            threads[i] = new Thread(checkers[i]);
+        }
+        for(Thread thread : threads)
+            thread.start();
+        for(Thread thread : threads)
+            thread.join();
+
+        //Once quiescent, every value left must come out in ascending order with the last value of its handle
+        Report report = new Report();
+        List<Tuple<Long, Integer>> remaining = new ArrayList<Tuple<Long, Integer>>();
+        Tuple<Long, Integer> entry;
+        while((entry = queue.removeMinLongEntry(0)).a != Long.MAX_VALUE) {
+            if(!remaining.isEmpty() && entry.a < remaining.get(remaining.size() - 1).a)
+                report.drainOrderViolations++;
+            remaining.add(entry);
+        }
+        queue.stop();
+
+        report.checkHandles(checkers, remaining);
+        return report;
+    }
+
+    /**
+     * Maps the ith value added by a thread to a unique value, scattered over the non-negative integers
+     * so that the values are added in no particular order
+     * @param seq The number of values the thread has added
+     * @return The value
+     */
+    private int uniqueValue(long seq) {
+        long x = (seq * numThreads + threadId) & Integer.MAX_VALUE;
+        x = (x * 0x9E3779B1L) & Integer.MAX_VALUE; //Multiplying by an odd constant is a bijection on 31 bits
+        return (int) (x ^ (x >>> 16));
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        long seq = 0;
+        int numAdded = 0;
+        for(int i = 0; i < numOperations; i++) {
+            if(numAdded <= 0 || ThreadLocalRandom.current().nextDouble(1) < operationMix) {
+                int v = uniqueValue(seq++);
+
+                //The largest value marks the empty queue
+                if(v == Integer.MAX_VALUE)
+                    v = uniqueValue(seq++);
+                types[size] = ADD;
+                values[size] = v;
+                starts[size] = System.nanoTime();
+                queueObject.add(v, threadId);
+                ends[size++] = System.nanoTime();
+                numAdded++;
+            } else {
+                types[size] = REMOVE;
+                starts[size] = System.nanoTime();
+                OptionalInt v = queueObject.tryRemoveMin(threadId);
+                ends[size] = System.nanoTime();
+                values[size++] = v.isPresent() ? v.getAsInt() : EMPTY;
+                numAdded--;
+            }
+        }
+    }
+
+    /**
+     * A thread of a stress test on handles. The ID of a value, which is its payload, tells which thread added it,
+     * and only that thread decreases it, so the thread knows the last value it gave each handle.
+     * @author Ryan Kelsey and Lee Berman
+     *
+     */
+    private static class HandleChecker implements Runnable {
+        private int threadId;
+        private int numThreads;
+        private int numOperations;
+        private PaperPriorityQueue<Integer> queue;
+        private List<PaperPriorityQueue.Handle<Integer>> handles = new ArrayList<PaperPriorityQueue.Handle<Integer>>(); //Indexed by ID / numThreads
+        private List<Long> confirmed = new ArrayList<Long>(); //The last value given to each handle by addEntry() or by a decreaseKey() that returned true
+        private List<Integer> removedIds = new ArrayList<Integer>(); //The IDs of the values removed through their handles
+        private List<Integer> takenIds = new ArrayList<Integer>(); //The IDs of the values taken by removes
+        private List<Long> takenValues = new ArrayList<Long>();
+        private int emptyRemoves;
+
+        private HandleChecker(int threadId, int numThreads, int numOperations, PaperPriorityQueue<Integer> queue) {
+            this.threadId = threadId;
+            this.numThreads = numThreads;
+            this.numOperations = numOperations;
+            this.queue = queue;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for(int i = 0; i < numOperations; i++) {
+                double x = random.nextDouble(1);
+                if(handles.isEmpty() || x < 0.4) {
+                    long v = random.nextLong(1L << 40);
+                    handles.add(queue.addEntry(v, handles.size() * numThreads + threadId, threadId));
+                    confirmed.add(v);
+                } else if(x < 0.7) {
+                    //Decreases to a value that may equal the value of another handle, to exercise ties
+                    int index = random.nextInt(handles.size());
+                    long v = confirmed.get(index) - 1 - random.nextInt(1 << 10);
+                    if(handles.get(index).isQueued() && queue.decreaseKey(handles.get(index), v, threadId))
+                        confirmed.set(index, v);
+                } else if(x < 0.75) {
+                    int index = random.nextInt(handles.size());
+                    if(queue.remove(handles.get(index)))
+                        removedIds.add(index * numThreads + threadId);
+                } else {
+                    Tuple<Long, Integer> entry = queue.removeMinLongEntry(threadId);
+                    if(entry.a == Long.MAX_VALUE)
+                        emptyRemoves++;
+                    else {
+                        takenIds.add(entry.b);
+                        takenValues.add(entry.a);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The result of checking a history
+     * @author Ryan Kelsey and Lee Berman
+     *
+     */
+    public static class Report {
+        private long adds, removes, emptyRemoves, remaining;
+        private long lost, duplicated, phantom; //Conservation violations
+        private long orderViolations, drainOrderViolations;
+        private long staleValues; //Values taken with other than the last value given to their handle
+        private long maxRankError; //The most smaller values skipped by a remove, counted up to relaxation + 1
+        private long addRetries; //Parallel adds retried on a single thread, where no other thread could get in their way
+        private long drainOverflows; //Calls to drainMin() that wrote past the end of their array or claimed to
+        private long staleEntries; //Elements moved to the sequential part beyond the values in the queue, which are entries left behind by decreases
+
+        /**
+         * Determines if the history passed every check
+         * @return true if no violation was found
+         */
+        public boolean isValid() {
+            return lost == 0 && duplicated == 0 && phantom == 0 && orderViolations == 0 && drainOrderViolations == 0 && addRetries == 0 && staleValues == 0 && drainOverflows == 0 && staleEntries == 0;
+        }
+
+        /**
+         * Checks that every added value was removed exactly once, either during the test or when the queue was drained
+         * @param checkers The histories of the threads
+         * @param drained The values left in the queue after the test
+         */
+        private void checkConservation(StressChecker[] checkers, List<Integer> drained) {
+            Map<Integer, Integer> balance = new HashMap<Integer, Integer>();
+            for(StressChecker checker : checkers) {
+                for(int i = 0; i < checker.size; i++) {
+                    if(checker.types[i] == ADD) {
+                        adds++;
+                        balance.merge(checker.values[i], 1, Integer::sum);
+                    } else if(checker.values[i] == EMPTY)
+                        emptyRemoves++;
+                    else {
+                        removes++;
+                        balance.merge(checker.values[i], -1, Integer::sum);
+                    }
+                }
+            }
+            for(int v : drained) {
+                remaining++;
+                balance.merge(v, -1, Integer::sum);
+            }
+
+            //A value removed but never added is a phantom rather than a duplicate
+            Set<Integer> added = new HashSet<Integer>();
+            for(StressChecker checker : checkers)
+                for(int i = 0; i < checker.size; i++)
+                    if(checker.types[i] == ADD)
+                        added.add(checker.values[i]);
+            for(Map.Entry<Integer, Integer> entry : balance.entrySet()) {
+                int b = entry.getValue();
+                if(!added.contains(entry.getKey()))
+                    phantom -= b;
+                else if(b > 0)
+                    lost += b;
+                else
+                    duplicated -= b;
+            }
+        }
+
+        /**
+         * Checks that every added value was removed exactly once
+         * @param added The values added
+         * @param removed The values removed
+         */
+        private void checkBalance(List<Long> added, List<Long> removed) {
+            Map<Long, Integer> balance = new HashMap<Long, Integer>();
+            for(long v : added)
+                balance.merge(v, 1, Integer::sum);
+            for(long v : removed)
+                balance.merge(v, -1, Integer::sum);
+            for(int b : balance.values()) {
+                if(b > 0)
+                    lost += b;
+                else
+                    duplicated -= b;
+            }
+        }
+
+        /**
+         * Checks that every value added with a handle left the queue exactly once, by a remove, through its
+         * handle or when the queue was drained, and that every value taken by a remove or left in the queue
+         * carried the last value given to its handle
+         * @param checkers The threads of the test
+         * @param drained The values left in the queue after the test, with their IDs
+         */
+        private void checkHandles(HandleChecker[] checkers, List<Tuple<Long, Integer>> drained) {
+            int numThreads = checkers.length;
+            Map<Integer, Integer> left = new HashMap<Integer, Integer>(); //The number of times each ID left the queue
+            List<Tuple<Long, Integer>> taken = new ArrayList<Tuple<Long, Integer>>(drained);
+            for(HandleChecker checker : checkers) {
+                adds += checker.handles.size();
+                removes += checker.takenIds.size() + checker.removedIds.size();
+                emptyRemoves += checker.emptyRemoves;
+                for(int id : checker.removedIds)
+                    left.merge(id, 1, Integer::sum);
+                for(int i = 0; i < checker.takenIds.size(); i++)
+                    taken.add(new Tuple<Long, Integer>(checker.takenValues.get(i), checker.takenIds.get(i)));
+            }
+            remaining = drained.size();
+
+            for(Tuple<Long, Integer> entry : taken) {
+                int id = entry.b;
+                HandleChecker owner = id >= 0 ? checkers[id % numThreads] : null;
+                if(owner == null || id / numThreads >= owner.handles.size()) {
+                    phantom++;
+                    continue;
+                }
+                left.merge(id, 1, Integer::sum);
+                if(entry.a.longValue() != owner.confirmed.get(id / numThreads))
+                    staleValues++;
+            }
+            for(HandleChecker checker : checkers) {
+                for(int i = 0; i < checker.handles.size(); i++) {
+                    int count = left.getOrDefault(i * numThreads + checker.threadId, 0);
+                    if(count == 0)
+                        lost++;
+                    else
+                        duplicated += count - 1;
+                }
+            }
+        }
+
+        /**
+         * Checks that no remove skipped more than relaxation smaller values that were certainly in the queue
+         * for the whole of the remove. A value is certainly in the queue from the end of its add to the start
+         * of its remove. The history is swept in time order, keeping the values that are certainly in the queue.
+         * @param checkers The histories of the threads
+         * @param relaxation The number of smaller values a remove may skip
+         */
+        private void checkOrder(StressChecker[] checkers, int relaxation) {
+            Map<Integer, Long> removedAt = new HashMap<Integer, Long>(); //The start of the remove of each value
+            List<long[]> events = new ArrayList<long[]>(); //{time, kind, value, end of the remove}
+            for(StressChecker checker : checkers) {
+                for(int i = 0; i < checker.size; i++) {
+                    int v = checker.values[i];
+                    if(checker.types[i] == ADD)
+                        events.add(new long[] {checker.ends[i], 2, v, 0});
+                    else {
+                        if(v != EMPTY) {
+                            removedAt.putIfAbsent(v, checker.starts[i]);
+                            events.add(new long[] {checker.starts[i], 0, v, 0});
+                        }
+                        events.add(new long[] {checker.starts[i], 1, v, checker.ends[i]});
+                    }
+                }
+            }
+
+            //At equal times, values leave the queue before removes look at it, and enter it after
+            events.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+
+            TreeSet<Integer> present = new TreeSet<Integer>();
+            for(long[] event : events) {
+                int v = (int) event[2];
+                if(event[1] == 0)
+                    present.remove(v);
+                else if(event[1] == 2)
+                    present.add(v);
+                else {
+                    //Counts the smaller values that stay in the queue until after the remove ends
+                    long skipped = 0;
+                    for(int u : present.headSet(v, false)) {
+                        Long removed = removedAt.get(u);
+                        if(removed == null || removed > event[3])
+                            skipped++;
+                        if(skipped > relaxation)
+                            break;
+                    }
+                    maxRankError = Math.max(maxRankError, skipped);
+                    if(skipped > relaxation)
+                        orderViolations++;
+                }
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return (isValid() ? "ok" : "FAILED")
+                + " adds=" + adds + " removes=" + removes + " emptyRemoves=" + emptyRemoves + " remaining=" + remaining
+                + " lost=" + lost + " duplicated=" + duplicated + " phantom=" + phantom
+                + " orderViolations=" + orderViolations + " maxRankError=" + maxRankError
+                + " drainOrderViolations=" + drainOrderViolations + " addRetries=" + addRetries + " staleValues=" + staleValues + " drainOverflows=" + drainOverflows + " staleEntries=" + staleEntries;
+        }
+    }
+}
\ No newline at end of file
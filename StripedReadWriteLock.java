@@ -0,0 +1,95 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A read-write lock for many short readers and rare writers. Each reader announces itself by incrementing a
+ * counter in its own stripe, padded onto its own cache line, so readers on different processors never write to
+ * the same word the way they do on the single state word of a ReentrantReadWriteLock. A writer raises a flag
+ * that turns new readers away and waits for every stripe to drain. Readers that were turned away block on the
+ * writers' mutex until the writer is done. The lock also counts completed write sections, so that a reader
+ * can tell whether a write happened since it last looked. The read lock is not reentrant.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class StripedReadWriteLock {
+	private final AtomicIntegerArray readers; //The readers holding the lock, one counter per stripe
+	private final int stripeMask;
+	private final ReentrantLock writers = new ReentrantLock();
+	private volatile boolean writing;
+	private volatile int stamp; //The number of completed write sections. Only written by the writer.
+
+	private static final int PADDING = 16; //Ints per cache line, so that no two stripes share one
+	private static final int WRITER_SPINS = 64; //Rounds a writer spins for a stripe to drain before it yields
+	private static final AtomicInteger nextStripe = new AtomicInteger();
+	private static final ThreadLocal<Integer> stripe = ThreadLocal.withInitial(nextStripe::getAndIncrement);
+
+	/**
+	 * Creates the lock with a stripe for every processor
+	 */
+	public StripedReadWriteLock() {
+		int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+		stripeMask = n - 1;
+		readers = new AtomicIntegerArray(n * PADDING);
+	}
+
+	/**
+	 * Acquires the read lock, blocking while a writer holds the lock
+	 */
+	public void readLock() {
+		int i = (stripe.get() & stripeMask) * PADDING;
+		while(true) {
+			//A writer raises its flag before it looks at the stripes, and this reader increments its stripe before it
+			//looks at the flag, so at least one of them sees the other
+			readers.getAndIncrement(i);
+			if(!writing)
+				return;
+			readers.decrementAndGet(i);
+
+			//Waits for the writer to finish
+			writers.lock();
+			writers.unlock();
+		}
+	}
+
+	/**
+	 * Releases the read lock
+	 */
+	public void readUnlock() {
+		readers.decrementAndGet((stripe.get() & stripeMask) * PADDING);
+	}
+
+	/**
+	 * Acquires the write lock, waiting for the readers that hold the lock to release it
+	 */
+	public void writeLock() {
+		writers.lock();
+		writing = true;
+		for(int i = 0; i < readers.length(); i += PADDING) {
+			for(int spins = 0; readers.get(i) != 0; spins++) {
+				if(spins < WRITER_SPINS)
+					Thread.onSpinWait();
+				else
+					Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Releases the write lock and counts the write section as completed
+	 */
+	public void writeUnlock() {
+		stamp++;
+		writing = false;
+		writers.unlock();
+	}
+
+	/**
+	 * Fetches the number of completed write sections. A reader that reads the same stamp before and after some
+	 * work, and holds the read lock when it reads it the second time, saw no write in between.
+	 * @return The number of completed write sections
+	 */
+	public int stamp() {
+		return stamp;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A workload that replays a trace of operations recorded from a real application. The trace is a text file
+ * with one operation per line, either "add <value>" or "remove". Blank lines and lines starting with # are
+ * skipped. The operations are dealt out to the threads in turn, and a thread that runs past the end of the
+ * trace starts over from the beginning.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class TraceWorkload implements IWorkload {
+    private String name;
+    private boolean[] adds; //Whether each operation of the trace is an add
+    private int[] values; //The value of each add, and the value of the closest preceding add for each remove
+
+    /**
+     * Reads a trace
+     * @param trace The trace file
+     * @throws IOException If the file cannot be read or contains a line that is not an operation
+     */
+    public TraceWorkload(Path trace) throws IOException {
+        name = "trace:" + trace.getFileName();
+        List<String> lines = Files.readAllLines(trace);
+        adds = new boolean[lines.size()];
+        values = new int[lines.size()];
+
+        int n = 0, last = 0;
+        for(int l = 0; l < lines.size(); l++) {
+            String line = lines.get(l).trim();
+            if(line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] parts = line.split("\\s+");
+            if(parts[0].equals("add") && parts.length == 2) {
+                try {
+                    last = Integer.parseInt(parts[1]);
+                } catch(NumberFormatException e) {
+                    throw new IOException(trace + ":" + (l + 1) + ": bad value " + parts[1]);
+                }
+                adds[n] = true;
+            } else if(!parts[0].equals("remove") || parts.length != 1)
+                throw new IOException(trace + ":" + (l + 1) + ": expected \"add <value>\" or \"remove\"");
+            values[n++] = last;
+        }
+
+        if(n == 0)
+            throw new IOException(trace + ": no operations");
+        adds = Arrays.copyOf(adds, n);
+        values = Arrays.copyOf(values, n);
+    }
+
+    /* (non-Javadoc)
+     * @see IWorkload#generator(int, int, int)
+     */
+    public Generator generator(int threadId, int numThreads, int numOperations) {
+        return new Generator() {
+            /**
+             * Finds the operation of the trace that a thread performs as its ith operation
+             * @param i The number of operations the thread has performed
+             * @return The index of the operation in the trace
+             */
+            private int operation(int i) {
+                return (int) (((long) i * numThreads + threadId) % adds.length);
+            }
+
+            /* (non-Javadoc)
+             * @see IWorkload.Generator#nextIsAdd(int)
+             */
+            public boolean nextIsAdd(int i) {
+                return adds[operation(i)];
+            }
+
+            /* (non-Javadoc)
+             * @see IWorkload.Generator#nextKey(int)
+             */
+            public int nextKey(int i) {
+                return values[operation(i)];
+            }
+
+            /* (non-Javadoc)
+             * @see IWorkload.Generator#removed(int)
+             */
+            public void removed(int value) {
+            }
+        };
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+/**
+ * Decides how a thread waits for another thread to act: first by spinning, then by spinning with
+ * Thread.onSpinWait(), then by yielding, and finally by blocking until it is woken up
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class WaitStrategy {
+	private final long spinRounds, spinWaitRounds, yieldRounds;
+	private final boolean blocks;
+
+	/** Spins forever and never blocks */
+	public static final WaitStrategy BUSY_SPIN = new WaitStrategy(0, 0, 0, false);
+
+	/** Spins briefly, yields for a while and then blocks, so idle threads cost close to no CPU */
+	public static final WaitStrategy BLOCKING = new WaitStrategy(64, 256, 64);
+
+	/**
+	 * Creates a wait strategy from the length of each of its phases
+	 * @param spinRounds The number of rounds spent busy-spinning
+	 * @param spinWaitRounds The number of rounds spent calling Thread.onSpinWait()
+	 * @param yieldRounds The number of rounds spent calling Thread.yield() before blocking
+	 */
+	public WaitStrategy(int spinRounds, int spinWaitRounds, int yieldRounds) {
+		this(spinRounds, spinWaitRounds, yieldRounds, true);
+	}
+
+	private WaitStrategy(int spinRounds, int spinWaitRounds, int yieldRounds, boolean blocks) {
+		this.spinRounds = spinRounds;
+		this.spinWaitRounds = spinWaitRounds;
+		this.yieldRounds = yieldRounds;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Determines if this strategy ever blocks
+	 * @return false if waiting threads spin forever
+	 */
+	public boolean blocks() {
+		return blocks;
+	}
+
+	/**
+	 * Performs one round of waiting
+	 * @param round The number of rounds the caller has already waited
+	 * @return true if the caller should now block until it is woken up
+	 */
+	public boolean idle(int round) {
+		if(!blocks)
+			return false;
+
+		long r = round & 0xFFFFFFFFL;
+		if(r < spinRounds)
+			return false;
+
+		r -= spinRounds;
+		if(r < spinWaitRounds) {
+			Thread.onSpinWait();
+			return false;
+		}
+
+		r -= spinWaitRounds;
+		if(r < yieldRounds) {
+			Thread.yield();
+			return false;
+		}
+		return true;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A workload built from a distribution of the added values and an operation mix that may change in phases
+ * over the course of the run
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+public class Workload implements IWorkload {
+    private static final int MIN_GENERATE = 0;
+    private static final int MAX_GENERATE = 10000 + 1;
+
+    private String name;
+    private Keys keys;
+    private double[] phases; //The operation mix of each phase, 0-1, higher = more additions
+
+    /**
+     * Draws the values to be added
+     */
+    public interface Keys {
+        /**
+         * Draws a value
+         * @param i The number of operations the thread has performed
+         * @param lastRemoved The last value the thread removed, or Integer.MIN_VALUE if it has removed none
+         * @param random The random number generator of the thread
+         * @return The value
+         */
+        public int next(int i, int lastRemoved, ThreadLocalRandom random);
+    }
+
+    /**
+     * Creates a workload
+     * @param name The name of the workload
+     * @param keys The distribution of the added values
+     * @param phases The operation mix of each phase. The operations of every thread are split evenly among the phases.
+     */
+    public Workload(String name, Keys keys, double... phases) {
+        if(phases.length == 0)
+            throw new IllegalArgumentException("At least one phase is needed");
+        this.name = name;
+        this.keys = keys;
+        this.phases = phases.clone();
+    }
+
+    /**
+     * Creates the original workload of the tester: values drawn uniformly from [0, 10000]
+     * @param phases The operation mix of each phase
+     * @return The workload
+     */
+    public static Workload uniform(double... phases) {
+        return uniform(MIN_GENERATE, MAX_GENERATE, phases);
+    }
+
+    /**
+     * Creates a workload whose values are drawn uniformly from a range
+     * @param min The smallest value
+     * @param max The value after the largest value
+     * @param phases The operation mix of each phase
+     * @return The workload
+     */
+    public static Workload uniform(int min, int max, double... phases) {
+        return new Workload("uniform", (i, lastRemoved, random) -> random.nextInt(min, max), phases);
+    }
+
+    /**
+     * Creates a workload whose values follow a Zipf distribution, so that the smallest values are added far more
+     * often than the others
+     * @param n The number of distinct values, starting from 0
+     * @param exponent The skew of the distribution. 0 is uniform; around 1 is typical of real workloads.
+     * @param phases The operation mix of each phase
+     * @return The workload
+     */
+    public static Workload zipf(int n, double exponent, double... phases) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for(int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for(int k = 0; k < n; k++)
+            cdf[k] /= sum;
+
+        return new Workload("zipf", (i, lastRemoved, random) -> {
+            int k = Arrays.binarySearch(cdf, random.nextDouble());
+            return MIN_GENERATE + Math.min(k < 0 ? -k - 1 : k, n - 1);
+        }, phases);
+    }
+
+    /**
+     * Creates a workload whose values increase with the number of operations, plus some random jitter, as in
+     * timers or event simulation
+     * @param jitter The range of the random amount added to each value
+     * @param phases The operation mix of each phase
+     * @return The workload
+     */
+    public static Workload ascending(int jitter, double... phases) {
+        return new Workload("ascending", (i, lastRemoved, random) -> MIN_GENERATE + i + random.nextInt(0, jitter), phases);
+    }
+
+    /**
+     * Creates a workload in the style of the classic hold model, where every added value is the last removed
+     * value plus a random delay, so that the values in the queue move steadily upwards
+     * @param maxDelay The largest delay
+     * @param phases The operation mix of each phase
+     * @return The workload
+     */
+    public static Workload hold(int maxDelay, double... phases) {
+        return new Workload("hold", (i, lastRemoved, random) -> {
+            long base = lastRemoved == Integer.MIN_VALUE ? MIN_GENERATE : lastRemoved;
+            return (int) Math.min(base + random.nextInt(1, maxDelay + 1), Integer.MAX_VALUE - 1);
+        }, phases);
+    }
+
+    /* (non-Javadoc)
+     * @see IWorkload#generator(int, int, int)
+     */
+    public Generator generator(int threadId, int numThreads, int numOperations) {
+        return new Generator() {
+            private ThreadLocalRandom random = ThreadLocalRandom.current();
+            private int lastRemoved = Integer.MIN_VALUE;
+
+            /* (non-Javadoc)
+             * @see IWorkload.Generator#nextIsAdd(int)
+             */
+            public boolean nextIsAdd(int i) {
+                int phase = (int) Math.min((long) i * phases.length / Math.max(numOperations, 1), phases.length - 1);
+                return random.nextDouble(1) < phases[phase];
+            }
+
+            /* (non-Javadoc)
+             * @see IWorkload.Generator#nextKey(int)
+             */
+            public int nextKey(int i) {
+                return keys.next(i, lastRemoved, random);
+            }
+
+            /* (non-Javadoc)
+             * @see IWorkload.Generator#removed(int)
+             */
+            public void removed(int value) {
+                if(value != Integer.MAX_VALUE)
+                    lastRemoved = value;
+            }
+        };
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        if(phases.length == 1)
+            return name + "@" + phases[0];
+        StringBuilder sb = new StringBuilder(name);
+        for(int i = 0; i < phases.length; i++)
+            sb.append(i == 0 ? "@" : "/").append(phases[i]);
+        return sb.toString();
+    }
+}
\ No newline at end of file
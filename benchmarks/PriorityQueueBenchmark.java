@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * JMH benchmarks of the priority queues. Every configuration of queue, workload and thread count runs in
+ * forked JVMs, after warmup iterations, on a fresh queue for every iteration. Each call of operation() is one
+ * add or remove, as the workload decides, so the throughput and average time are per operation; run with
+ * -prof gc for the allocation rate. The thread count is set with -t, or swept by PerformanceTester.
+ * @author Ryan Kelsey and Lee Berman
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PriorityQueueBenchmark {
+    @Param({"Sequential", "Concurrent", "Paper-23h", "PaperCombining-23h", "PaperOffHeap-23h", "MultiQueue", "Spray-23h", "LindenJonsson-23h", "Bucket-10001"})
+    public String queue;
+
+    @Param({"uniform@0.25", "uniform@0.5", "uniform@0.75", "zipf@0.25", "zipf@0.5", "zipf@0.75",
+        "ascending@0.25", "ascending@0.5", "ascending@0.75", "hold@0.25", "hold@0.5", "hold@0.75"})
+    public String workload; //The distribution of the added values and the share of adds, or trace@FILE
+
+    private IntFunction<IntSupplier> queueObject; //The BenchmarkQueue of the iteration
+    private AtomicInteger threadIds;
+
+    /**
+     * Creates the queue for an iteration. BenchmarkQueue is in the default package, so it is found by name.
+     * @param params The parameters of the run, which give the number of threads
+     * @throws ReflectiveOperationException If the queue cannot be created
+     */
+    @Setup(Level.Iteration)
+    @SuppressWarnings("unchecked")
+    public void setUp(BenchmarkParams params) throws ReflectiveOperationException {
+        queueObject = (IntFunction<IntSupplier>) Class.forName("BenchmarkQueue")
+            .getConstructor(String.class, String.class, int.class)
+            .newInstance(queue, workload, params.getThreads());
+        threadIds = new AtomicInteger();
+    }
+
+    /**
+     * Stops the queue of an iteration
+     * @throws Exception If the queue cannot be stopped
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        ((AutoCloseable) queueObject).close();
+    }
+
+    /**
+     * The operations of one thread in an iteration
+     */
+    @State(Scope.Thread)
+    public static class Operations {
+        private IntSupplier next;
+
+        /**
+         * Gives the thread an ID and its stream of operations on the queue of the iteration
+         * @param benchmark The benchmark, whose queue is set up first
+         */
+        @Setup(Level.Iteration)
+        public void setUp(PriorityQueueBenchmark benchmark) {
+            next = benchmark.queueObject.apply(benchmark.threadIds.getAndIncrement());
+        }
+    }
+
+    /**
+     * Runs the next operation of the thread
+     * @param operations The operations of the thread
+     * @return The value added or removed, which JMH consumes
+     */
+    @Benchmark
+    public int operation(Operations operations) {
+        return operations.next.getAsInt();
+    }
+}
\ No newline at end of file